@@ -1,21 +1,53 @@
 package com.codingbarn.barn;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.UUID;
 
 /**
  * An event emitted by the barn when something significant happens.
  * 
- * @param eventType Type of event: FIRE, EXTINGUISHED, etc.
+ * @param eventId Unique for this event, and the same on every retry and
+ *                replay of it, so a subscriber can spot duplicates
+ * @param eventType Type of event: FIRE, EXTINGUISHED, HEARTBEAT, etc.
  * @param timestamp When the event occurred
  * @param barnId Identifier for the barn (for multi-barn scenarios)
+ * @param offset Position in the barn's {@link EventLog} (0 until it has been logged)
  */
-public record BarnEvent(String eventType, Instant timestamp, String barnId) {
+public record BarnEvent(String eventId, String eventType, Instant timestamp, String barnId, long offset) {
     
     public static BarnEvent fire(String barnId) {
-        return new BarnEvent("FIRE", Instant.now(), barnId);
+        return fire(barnId, Instant.now());
+    }
+    
+    /**
+     * The id comes from the barn and the moment the fire started, so
+     * whoever reports the same fire again - the bridge after a restart,
+     * say - reports it under the same id, and it's still a duplicate.
+     */
+    public static BarnEvent fire(String barnId, Instant startedAt) {
+        String fire = barnId + "/FIRE/" + startedAt;
+        return new BarnEvent(UUID.nameUUIDFromBytes(fire.getBytes(StandardCharsets.UTF_8)).toString(),
+            "FIRE", startedAt, barnId, 0);
     }
     
     public static BarnEvent extinguished(String barnId) {
-        return new BarnEvent("EXTINGUISHED", Instant.now(), barnId);
+        return new BarnEvent(newId(), "EXTINGUISHED", Instant.now(), barnId, 0);
+    }
+    
+    /**
+     * "Still here." Never logged; its offset is the latest one in the log,
+     * so a subscriber can also tell whether it has missed anything.
+     */
+    public static BarnEvent heartbeat(String barnId, long latestOffset) {
+        return new BarnEvent(newId(), "HEARTBEAT", Instant.now(), barnId, latestOffset);
+    }
+    
+    public BarnEvent withOffset(long offset) {
+        return new BarnEvent(eventId, eventType, timestamp, barnId, offset);
+    }
+    
+    private static String newId() {
+        return UUID.randomUUID().toString();
     }
 }
@@ -0,0 +1,34 @@
+package com.codingbarn.barn;
+
+import java.util.Set;
+
+/**
+ * How a subscriber wants its deliveries bundled.
+ * 
+ * When a barn flaps - ignite, extinguish, ignite - a subscriber would
+ * normally get one POST per event. With batching on, pending events are
+ * held for up to {@code lingerMs} (or until {@code maxSize} pile up) and
+ * sent together as one JSON array or one NDJSON body.
+ * 
+ * With {@code coalesce} on, a batch only carries the latest state event
+ * (FIRE / EXTINGUISHED) per barn; the ones it superseded are skipped.
+ * 
+ * @param maxSize most events per delivery (1 = no batching)
+ * @param lingerMs how long to wait for more events before sending a partial batch
+ * @param format "json" for a JSON array, "ndjson" for newline-delimited JSON
+ * @param coalesce collapse superseded state events for the same barn
+ */
+public record BatchOptions(int maxSize, long lingerMs, String format, boolean coalesce) {
+    
+    public static final BatchOptions NONE = new BatchOptions(1, 0, "json", false);
+    
+    static final Set<String> STATE_EVENTS = Set.of("FIRE", "EXTINGUISHED");
+    
+    public boolean isBatching() {
+        return maxSize > 1;
+    }
+    
+    public boolean isNdjson() {
+        return "ndjson".equalsIgnoreCase(format);
+    }
+}
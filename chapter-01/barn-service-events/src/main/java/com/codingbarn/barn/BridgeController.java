@@ -0,0 +1,24 @@
+package com.codingbarn.barn;
+
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * What the {@link LegacyBarnBridge} is watching, and how hard it's polling.
+ */
+@RestController
+@RequestMapping("/barn")
+public class BridgeController {
+    
+    private final LegacyBarnBridge bridge;
+    
+    public BridgeController(LegacyBarnBridge bridge) {
+        this.bridge = bridge;
+    }
+    
+    @GetMapping("/bridge")
+    public List<LegacyBarnBridge.BridgeStats> getBridgedBarns() {
+        return bridge.getStats();
+    }
+}
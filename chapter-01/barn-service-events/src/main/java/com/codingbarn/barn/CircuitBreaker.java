@@ -0,0 +1,68 @@
+package com.codingbarn.barn;
+
+/**
+ * A circuit breaker for one subscriber.
+ * 
+ * CLOSED: deliveries flow normally.
+ * OPEN: the subscriber failed too many times in a row; we stop calling it
+ *       for a while instead of paying a full timeout on every event.
+ * HALF_OPEN: the wait is over; one probe delivery decides whether we go
+ *            back to CLOSED or stay OPEN for another round.
+ * 
+ * Only the subscriber's own delivery loop touches it, so a plain
+ * synchronized is plenty.
+ */
+class CircuitBreaker {
+    
+    enum State { CLOSED, OPEN, HALF_OPEN }
+    
+    private final int failureThreshold;
+    private final long openMillis;
+    
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+    
+    /**
+     * Ask permission to make a delivery.
+     * 
+     * @return 0 if the delivery may go ahead, otherwise how many
+     *         milliseconds to wait before asking again
+     */
+    synchronized long tryAcquire(long nowMillis) {
+        if (state == State.OPEN) {
+            long waitMs = openedAt + openMillis - nowMillis;
+            if (waitMs > 0) {
+                return waitMs;
+            }
+            state = State.HALF_OPEN;
+        }
+        return 0;
+    }
+    
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+    
+    synchronized void onFailure(long nowMillis) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nowMillis;
+        }
+    }
+    
+    synchronized State state() {
+        return state;
+    }
+    
+    synchronized int consecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
@@ -0,0 +1,31 @@
+package com.codingbarn.barn;
+
+/**
+ * An outbox entry on its way to a subscriber, together with the encoded
+ * payload. The payload array is shared by every delivery of the same
+ * event, so it must never be modified.
+ * 
+ * @param enqueuedAtNanos when the delivery was first queued, for batching
+ *                        linger and queue latency
+ */
+record Delivery(WebhookOutbox.OutboxEntry entry, byte[] payload, Priority priority, long enqueuedAtNanos) {
+    
+    static Delivery of(WebhookOutbox.OutboxEntry entry, byte[] payload, Priority priority) {
+        return new Delivery(entry, payload, priority, System.nanoTime());
+    }
+    
+    Delivery nextAttempt() {
+        return new Delivery(entry.nextAttempt(), payload, priority, enqueuedAtNanos);
+    }
+    
+    /**
+     * The same delivery going back into a queue, e.g. after a retry delay.
+     */
+    Delivery requeued() {
+        return new Delivery(entry, payload, priority, System.nanoTime());
+    }
+    
+    long ageMillis() {
+        return (System.nanoTime() - enqueuedAtNanos) / 1_000_000;
+    }
+}
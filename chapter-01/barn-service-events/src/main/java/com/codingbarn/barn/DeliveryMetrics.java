@@ -0,0 +1,150 @@
+package com.codingbarn.barn;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long deliveries take, per subscriber and event type.
+ * 
+ * Two latencies are tracked:
+ * <ul>
+ *   <li>attempt latency - how long one send to one subscriber took,
+ *       successful or not, broken down by subscriber and event type</li>
+ *   <li>notification latency - from the moment the event happened to the
+ *       moment a subscriber acknowledged it, per event type. This is the
+ *       number to put an SLO on ("99.9% of fire alarms within 2s").</li>
+ * </ul>
+ * 
+ * Both are recorded into {@link RollingLatency} windows, so the hot path
+ * is two map lookups and a few atomic increments - no locks, no allocation
+ * once a subscriber has been seen.
+ * 
+ * Each subscriber and event type costs a set of histograms (about 100 KB),
+ * so only the first {@code maxSubscribers} get their own. Everyone after
+ * that is lumped together under {@link #OTHER_SUBSCRIBERS}; a subscriber
+ * that unsubscribes frees its place.
+ */
+class DeliveryMetrics {
+    
+    private static final long SLOT_MS = 10_000;
+    private static final long ONE_MINUTE_MS = 60_000;
+    private static final long FIVE_MINUTES_MS = 300_000;
+    
+    static final String OTHER_SUBSCRIBERS = "(other subscribers)";
+    
+    private final int maxSubscribers;
+    private final Map<String, Map<String, SubscriberMetrics>> bySubscriber = new ConcurrentHashMap<>();
+    private final Map<String, RollingLatency> notificationLatency = new ConcurrentHashMap<>();
+    
+    DeliveryMetrics(int maxSubscribers) {
+        this.maxSubscribers = maxSubscribers;
+    }
+    
+    void recordSuccess(Delivery delivery, long attemptMicros) {
+        BarnEvent event = delivery.entry().event();
+        SubscriberMetrics metrics = metricsFor(delivery);
+        metrics.succeeded.incrementAndGet();
+        metrics.attemptLatency.record(attemptMicros);
+        
+        // Epoch arithmetic rather than Duration.between(..., Instant.now()), which allocates
+        Instant happenedAt = event.timestamp();
+        long sinceEventMicros = System.currentTimeMillis() * 1000
+            - (happenedAt.getEpochSecond() * 1_000_000 + happenedAt.getNano() / 1000);
+        notificationLatencyFor(event.eventType()).record(sinceEventMicros);
+    }
+    
+    void recordFailure(Delivery delivery, long attemptMicros) {
+        SubscriberMetrics metrics = metricsFor(delivery);
+        metrics.failed.incrementAndGet();
+        metrics.attemptLatency.record(attemptMicros);
+    }
+    
+    void recordRetry(Delivery delivery) {
+        metricsFor(delivery).retried.incrementAndGet();
+    }
+    
+    void forget(String subscriberUrl) {
+        bySubscriber.remove(subscriberUrl);
+    }
+    
+    /**
+     * Notification latency per event type over the last one and five minutes.
+     */
+    Map<String, WindowedLatency> notificationLatency() {
+        Map<String, WindowedLatency> result = new TreeMap<>();
+        notificationLatency.forEach((eventType, latency) -> result.put(eventType, new WindowedLatency(
+            latency.summary(ONE_MINUTE_MS), latency.summary(FIVE_MINUTES_MS))));
+        return result;
+    }
+    
+    List<SubscriberStats> subscriberStats() {
+        List<SubscriberStats> result = new ArrayList<>();
+        bySubscriber.forEach((subscriberUrl, byType) -> byType.forEach((eventType, metrics) ->
+            result.add(new SubscriberStats(
+                subscriberUrl,
+                eventType,
+                metrics.succeeded.get(),
+                metrics.failed.get(),
+                metrics.retried.get(),
+                metrics.attemptLatency.summary(ONE_MINUTE_MS)
+            ))));
+        return result;
+    }
+    
+    private SubscriberMetrics metricsFor(Delivery delivery) {
+        String subscriberUrl = delivery.entry().subscriberUrl();
+        String eventType = delivery.entry().event().eventType();
+        // Plain get first: computeIfAbsent can lock even when the key is there
+        Map<String, SubscriberMetrics> byType = bySubscriber.get(subscriberUrl);
+        if (byType == null) {
+            // Only roughly enforced under a race, which is fine for a memory cap
+            String key = bySubscriber.size() < maxSubscribers ? subscriberUrl : OTHER_SUBSCRIBERS;
+            byType = bySubscriber.computeIfAbsent(key, url -> new ConcurrentHashMap<>());
+        }
+        SubscriberMetrics metrics = byType.get(eventType);
+        if (metrics == null) {
+            metrics = byType.computeIfAbsent(eventType, type -> new SubscriberMetrics());
+        }
+        return metrics;
+    }
+    
+    private RollingLatency notificationLatencyFor(String eventType) {
+        RollingLatency latency = notificationLatency.get(eventType);
+        if (latency == null) {
+            latency = notificationLatency.computeIfAbsent(eventType,
+                type -> new RollingLatency(SLOT_MS, (int) (FIVE_MINUTES_MS / SLOT_MS)));
+        }
+        return latency;
+    }
+    
+    private static final class SubscriberMetrics {
+        private final AtomicLong succeeded = new AtomicLong(0);
+        private final AtomicLong failed = new AtomicLong(0);
+        private final AtomicLong retried = new AtomicLong(0);
+        private final RollingLatency attemptLatency = new RollingLatency(SLOT_MS, (int) (ONE_MINUTE_MS / SLOT_MS));
+    }
+    
+    /**
+     * Latency percentiles in microseconds over two windows.
+     */
+    public record WindowedLatency(LatencyHistogram.Summary lastMinute, LatencyHistogram.Summary lastFiveMinutes) {}
+    
+    /**
+     * @param failed attempts that failed (each may be retried)
+     * @param retried retries scheduled after a failure
+     * @param attemptLatencyMicros send time over the last minute, successful or not
+     */
+    public record SubscriberStats(
+        String callbackUrl,
+        String eventType,
+        long succeeded,
+        long failed,
+        long retried,
+        LatencyHistogram.Summary attemptLatencyMicros
+    ) {}
+}
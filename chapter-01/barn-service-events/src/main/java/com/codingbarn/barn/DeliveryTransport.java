@@ -0,0 +1,21 @@
+package com.codingbarn.barn;
+
+/**
+ * How a delivery actually gets to a subscriber.
+ * 
+ * The payload arrives already encoded - the dispatcher serializes each
+ * event once and every subscriber's delivery shares the same bytes.
+ * Implementations must treat the array as read-only.
+ * 
+ * Pick one with delivery.transport: "http-client" (the default) or
+ * "rest-template".
+ */
+public interface DeliveryTransport {
+    
+    /**
+     * POST the payload to the subscriber.
+     * 
+     * @throws Exception if the subscriber couldn't be reached or didn't answer 2xx
+     */
+    void send(String subscriberUrl, byte[] payload, String contentType) throws Exception;
+}
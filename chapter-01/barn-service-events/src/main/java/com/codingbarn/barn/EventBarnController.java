@@ -4,11 +4,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.Instant;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -29,12 +27,20 @@ public class EventBarnController {
     private final AtomicReference<BarnStatus> status = 
         new AtomicReference<>(BarnStatus.ok());
     
-    private final List<String> subscribers = new CopyOnWriteArrayList<>();
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final SubscriberRegistry subscribers;
+    private final WebhookDispatcher dispatcher;
+    private final EventPublisher publisher;
     
     @Value("${barn.id:main-barn}")
     private String barnId;
     
+    public EventBarnController(SubscriberRegistry subscribers, WebhookDispatcher dispatcher,
+                               EventPublisher publisher) {
+        this.subscribers = subscribers;
+        this.dispatcher = dispatcher;
+        this.publisher = publisher;
+    }
+    
     /**
      * Get the current status.
      * Still available for manual checks, but subscribers don't need to poll.
@@ -49,17 +55,43 @@ public class EventBarnController {
      * 
      * This is how the fire station "installs a smoke detector."
      * Once registered, they'll be notified instantly when something happens.
+     * 
+     * Optionally narrow it down to some event types and/or barns, and give
+     * it a lease so forgotten subscriptions clean themselves up. Calling
+     * subscribe again with the same URL updates the filters and renews
+     * the lease.
+     * 
+     * Subscribers that get a lot of events can ask for them in batches
+     * (batchSize > 1), held for up to lingerMs, as a JSON array or NDJSON,
+     * optionally keeping only the latest FIRE/EXTINGUISHED per barn.
+     * 
+     * With heartbeatSeconds > 0 the barn also sends a HEARTBEAT event that
+     * often, so a subscriber can tell "nothing happened" from "the
+     * webhooks stopped arriving" (see {@link HeartbeatSender}).
      */
     @PostMapping("/subscribe")
-    public SubscriptionResponse subscribe(@RequestParam String callbackUrl) {
-        if (!subscribers.contains(callbackUrl)) {
-            subscribers.add(callbackUrl);
+    public SubscriptionResponse subscribe(
+            @RequestParam String callbackUrl,
+            @RequestParam(required = false, defaultValue = "") List<String> eventTypes,
+            @RequestParam(required = false, defaultValue = "") List<String> barnIds,
+            @RequestParam(defaultValue = "0") long leaseSeconds,
+            @RequestParam(defaultValue = "1") int batchSize,
+            @RequestParam(defaultValue = "0") long lingerMs,
+            @RequestParam(defaultValue = "json") String batchFormat,
+            @RequestParam(defaultValue = "false") boolean coalesce,
+            @RequestParam(defaultValue = "0") long heartbeatSeconds) {
+        BatchOptions batching = new BatchOptions(Math.max(1, batchSize), lingerMs, batchFormat, coalesce);
+        boolean isNew = subscribers.subscribe(callbackUrl, eventTypes, barnIds, leaseSeconds, batching,
+            heartbeatSeconds);
+        if (isNew) {
             log.info("✓ New subscriber registered: {}", callbackUrl);
             log.info("  Total subscribers: {}", subscribers.size());
         } else {
-            log.info("Subscriber already registered: {}", callbackUrl);
+            log.info("Subscriber already registered, renewed: {}", callbackUrl);
         }
-        return new SubscriptionResponse(callbackUrl, true, subscribers.size());
+        SubscriberRegistry.Subscription subscription = subscribers.get(callbackUrl);
+        return new SubscriptionResponse(callbackUrl, true, subscribers.size(),
+            subscription != null ? subscription.expiresAt() : null);
     }
     
     /**
@@ -67,11 +99,11 @@ public class EventBarnController {
      */
     @PostMapping("/unsubscribe")
     public SubscriptionResponse unsubscribe(@RequestParam String callbackUrl) {
-        boolean removed = subscribers.remove(callbackUrl);
+        boolean removed = subscribers.unsubscribe(callbackUrl);
         if (removed) {
             log.info("✓ Subscriber removed: {}", callbackUrl);
         }
-        return new SubscriptionResponse(callbackUrl, false, subscribers.size());
+        return new SubscriptionResponse(callbackUrl, false, subscribers.size(), null);
     }
     
     /**
@@ -79,7 +111,24 @@ public class EventBarnController {
      */
     @GetMapping("/subscribers")
     public List<String> getSubscribers() {
-        return List.copyOf(subscribers);
+        return subscribers.callbackUrls();
+    }
+    
+    /**
+     * Every subscription with its filters and lease.
+     */
+    @GetMapping("/subscriptions")
+    public List<SubscriberRegistry.Subscription> getSubscriptions() {
+        return subscribers.subscriptions();
+    }
+    
+    /**
+     * Circuit breaker state and delivery queue depth per subscriber.
+     * A firehouse stuck in OPEN is one we've stopped wasting time on.
+     */
+    @GetMapping("/subscribers/health")
+    public List<SubscriberChannel.SubscriberHealth> getSubscriberHealth() {
+        return dispatcher.subscriberHealth();
     }
     
     /**
@@ -98,13 +147,14 @@ public class EventBarnController {
         log.warn("═══════════════════════════════════════════════════");
         
         // Immediately notify all subscribers
-        BarnEvent event = BarnEvent.fire(barnId);
-        int notified = notifySubscribers(event);
+        // Same start time as the status, so pollers and subscribers agree on which fire it is
+        BarnEvent event = BarnEvent.fire(barnId, fireTime);
+        int enqueued = publisher.publish(event);
         
-        log.warn("📢 Notified {} subscribers immediately", notified);
+        log.warn("📢 Enqueued {} deliveries immediately", enqueued);
         log.warn("No waiting. No polling. Instant notification.");
         
-        return "Fire started at " + fireTime + ". Notified " + notified + " subscribers.";
+        return "Fire started at " + fireTime + ". Enqueued " + enqueued + " deliveries.";
     }
     
     /**
@@ -115,39 +165,11 @@ public class EventBarnController {
         status.set(BarnStatus.ok());
         
         BarnEvent event = BarnEvent.extinguished(barnId);
-        int notified = notifySubscribers(event);
-        
-        log.info("✓ Fire extinguished. Notified {} subscribers.", notified);
-        return "Fire extinguished. Notified " + notified + " subscribers.";
-    }
-    
-    /**
-     * Push an event to all registered subscribers.
-     * 
-     * In a production system, you'd want:
-     * - Async processing (don't block the main request)
-     * - Retry logic with exponential backoff
-     * - Dead letter queue for failed deliveries
-     * - Circuit breaker for misbehaving subscribers
-     * 
-     * But this is a toy - we're keeping it simple to show the concept.
-     */
-    private int notifySubscribers(BarnEvent event) {
-        int successful = 0;
-        
-        for (String subscriberUrl : subscribers) {
-            try {
-                restTemplate.postForObject(subscriberUrl, event, String.class);
-                log.debug("  ✓ Notified: {}", subscriberUrl);
-                successful++;
-            } catch (Exception e) {
-                log.warn("  ✗ Failed to notify {}: {}", subscriberUrl, e.getMessage());
-                // In production: queue for retry, don't just drop it
-            }
-        }
+        int enqueued = publisher.publish(event);
         
-        return successful;
+        log.info("✓ Fire extinguished. Enqueued {} deliveries.", enqueued);
+        return "Fire extinguished. Enqueued " + enqueued + " deliveries.";
     }
     
-    public record SubscriptionResponse(String callbackUrl, boolean subscribed, int totalSubscribers) {}
+    public record SubscriptionResponse(String callbackUrl, boolean subscribed, int totalSubscribers, Instant leaseExpiresAt) {}
 }
@@ -0,0 +1,291 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Every event the barn has emitted, numbered in order.
+ * 
+ * A webhook is fire-and-forget: if the firehouse was down when the barn
+ * caught fire, it never finds out. With a numbered log, a firehouse can
+ * remember the last offset it saw and ask "what did I miss since then?"
+ * 
+ * Recent events live in a fixed-size ring buffer in memory. Readers don't
+ * take a lock; they check each slot still holds the offset they expect,
+ * because the writer may have lapped them.
+ * 
+ * Optionally, every event is also spilled to a memory-mapped file so that
+ * catch-up reads can reach further back than the ring, and offsets keep
+ * counting up across restarts. The file's header holds the latest offset
+ * handed out, so numbering carries on from there even after the file has
+ * filled up and stopped taking events.
+ * 
+ * Once the spill file is full, the events between its end and the start
+ * of the ring are gone for good. Catch-up reads skip over them and say
+ * how many were missed, rather than getting stuck in front of the gap.
+ */
+@Component
+public class EventLog {
+    
+    private static final Logger log = LoggerFactory.getLogger(EventLog.class);
+    
+    // Spill file header: [int magic][int unused][long latest offset handed out]
+    private static final int SPILL_MAGIC = 0x4245564C;
+    private static final int HIGH_WATER_POSITION = 8;
+    private static final int HEADER_BYTES = 16;
+    
+    private final ObjectMapper objectMapper;
+    private final int capacity;
+    private final AtomicReferenceArray<BarnEvent> ring;
+    private volatile long latestOffset = 0;
+    
+    // Spill file: header, then [int length][json bytes] per event, in offset order
+    private final MappedByteBuffer spill;
+    private long[] spillPositions = new long[1024];
+    private long spillFirstOffset = 1;
+    private int spillCount = 0;
+    private int spillEnd = HEADER_BYTES;
+    private boolean spillFull = false;
+    
+    public EventLog(
+            ObjectMapper objectMapper,
+            @Value("${event-log.capacity:4096}") int capacity,
+            @Value("${event-log.spill-file:}") String spillFile,
+            @Value("${event-log.spill-bytes:67108864}") int spillBytes) throws IOException {
+        this.objectMapper = objectMapper;
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        
+        if (spillFile.isBlank()) {
+            this.spill = null;
+        } else {
+            Path path = Path.of(spillFile).toAbsolutePath();
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE)) {
+                this.spill = channel.map(FileChannel.MapMode.READ_WRITE, 0, spillBytes);
+            }
+            recoverFromSpill();
+        }
+    }
+    
+    /**
+     * Stamp the event with the next offset and remember it.
+     */
+    public synchronized BarnEvent append(BarnEvent event) {
+        long offset = latestOffset + 1;
+        BarnEvent sequenced = event.withOffset(offset);
+        ring.set(slot(offset), sequenced);
+        if (spill != null) {
+            spill(sequenced);
+            // Even when the event itself no longer fits
+            spill.putLong(HIGH_WATER_POSITION, offset);
+        }
+        latestOffset = offset;
+        return sequenced;
+    }
+    
+    /**
+     * Events with an offset greater than {@code since}, oldest first.
+     * 
+     * If {@code since} is so old that the ring has already moved past it
+     * (and it isn't in the spill file either), or the batch runs into the
+     * gap between a full spill file and the ring, the lost events are
+     * skipped and counted in {@link EventBatch#missed()}.
+     */
+    public EventBatch readSince(long since, int limit) {
+        long latest = latestOffset;
+        long oldest = oldestAvailable(latest);
+        long from = Math.max(since + 1, oldest);
+        long to = Math.min(latest, from + limit - 1);
+        // Everything up to here is either in the batch or gone
+        long skippedThrough = Math.max(since, from - 1);
+        
+        List<BarnEvent> events = new ArrayList<>((int) Math.max(0, to - from + 1));
+        for (long offset = from; offset <= to; offset++) {
+            BarnEvent event = ring.get(slot(offset));
+            if (event == null || event.offset() != offset) {
+                // Lapped by the writer, or older than the ring - try the spill file
+                event = readSpilled(offset);
+            }
+            if (event == null) {
+                if (!events.isEmpty()) {
+                    // Hand over what we have; the next read deals with the gap
+                    break;
+                }
+                // Gone: past the end of a full spill file, or never
+                // spilled before a restart. Skip to the next event that can be here.
+                latest = latestOffset;
+                long resumeAt = Math.max(offset + 1, latest - capacity + 1);
+                skippedThrough = resumeAt - 1;
+                offset = skippedThrough;
+                to = Math.min(latest, resumeAt + limit - 1);
+                continue;
+            }
+            events.add(event);
+        }
+        
+        long next = events.isEmpty() ? skippedThrough : events.get(events.size() - 1).offset();
+        long missed = Math.max(0, skippedThrough - since);
+        return new EventBatch(events, next, oldest, latest, missed);
+    }
+    
+    public long latestOffset() {
+        return latestOffset;
+    }
+    
+    private long oldestAvailable(long latest) {
+        long oldestInRing = Math.max(1, latest - capacity + 1);
+        synchronized (this) {
+            if (spillCount > 0) {
+                return Math.min(oldestInRing, spillFirstOffset);
+            }
+        }
+        return oldestInRing;
+    }
+    
+    private int slot(long offset) {
+        return (int) (offset % capacity);
+    }
+    
+    /**
+     * Spilled events must have consecutive offsets - readSpilled finds one
+     * by its distance from the first. An event that doesn't follow on from
+     * the last one spilled (some were skipped while the file was full, in
+     * this run or the one before) means the file is full for good.
+     */
+    private void spill(BarnEvent event) {
+        if (spillFull) {
+            return;
+        }
+        if (spillCount > 0 && event.offset() != spillFirstOffset + spillCount) {
+            markSpillFull();
+            return;
+        }
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (spillEnd + 4 + json.length + 4 > spill.capacity()) {
+            markSpillFull();
+            return;
+        }
+        if (spillCount == 0) {
+            spillFirstOffset = event.offset();
+        }
+        if (spillCount == spillPositions.length) {
+            spillPositions = Arrays.copyOf(spillPositions, spillCount * 2);
+        }
+        spillPositions[spillCount++] = spillEnd;
+        spill.put(spillEnd + 4, json);
+        // Length last, so a crash mid-write leaves a zero length that recovery stops at
+        spill.putInt(spillEnd, json.length);
+        spillEnd += 4 + json.length;
+    }
+    
+    private void markSpillFull() {
+        spillFull = true;
+        spill.force();
+        log.warn("⚠ Event log spill file is full; newer events will only be served from memory");
+    }
+    
+    private synchronized BarnEvent readSpilled(long offset) {
+        if (spill == null || offset < spillFirstOffset || offset >= spillFirstOffset + spillCount) {
+            return null;
+        }
+        int position = (int) spillPositions[(int) (offset - spillFirstOffset)];
+        byte[] json = new byte[spill.getInt(position)];
+        spill.get(position + 4, json);
+        try {
+            return objectMapper.readValue(json, BarnEvent.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Read back whatever a previous run spilled, so offsets carry on where
+     * they left off and the ring starts out warm.
+     */
+    private void recoverFromSpill() throws IOException {
+        int magic = spill.getInt(0);
+        if (magic == 0) {
+            spill.putInt(0, SPILL_MAGIC);
+        } else if (magic != SPILL_MAGIC) {
+            throw new IllegalStateException("Not an event log spill file (or one from an older version)");
+        }
+        
+        int position = HEADER_BYTES;
+        while (position + 4 <= spill.capacity()) {
+            int length = spill.getInt(position);
+            if (length <= 0 || position + 4 + length > spill.capacity()) {
+                break;
+            }
+            byte[] json = new byte[length];
+            spill.get(position + 4, json);
+            BarnEvent event = objectMapper.readValue(json, BarnEvent.class);
+            
+            if (spillCount == 0) {
+                spillFirstOffset = event.offset();
+            }
+            if (spillCount == spillPositions.length) {
+                spillPositions = Arrays.copyOf(spillPositions, spillCount * 2);
+            }
+            spillPositions[spillCount++] = position;
+            ring.set(slot(event.offset()), event);
+            latestOffset = event.offset();
+            position += 4 + length;
+        }
+        spillEnd = position;
+        // Offsets handed out after the file filled up weren't spilled, but were seen
+        long highWater = spill.getLong(HIGH_WATER_POSITION);
+        if (spillCount > 0 && highWater > latestOffset) {
+            // It was full last time; a smaller event mustn't squeeze in after the gap
+            spillFull = true;
+            log.warn("⚠ Event log spill file is full; newer events will only be served from memory");
+        }
+        latestOffset = Math.max(latestOffset, highWater);
+        
+        if (spillCount > 0) {
+            log.info("📖 Recovered {} events from the spill file (latest offset {})", spillCount, latestOffset);
+        }
+    }
+    
+    @PreDestroy
+    public synchronized void close() {
+        if (spill != null) {
+            spill.force();
+        }
+    }
+    
+    /**
+     * @param events the events, oldest first
+     * @param nextOffset pass this as {@code since} to get the next batch
+     * @param oldestAvailable oldest offset we can still serve
+     * @param latestOffset newest offset in the log
+     * @param missed events after {@code since} that are gone and were
+     *               skipped; 0 means nothing was lost
+     */
+    public record EventBatch(List<BarnEvent> events, long nextOffset, long oldestAvailable, long latestOffset,
+                             long missed) {}
+}
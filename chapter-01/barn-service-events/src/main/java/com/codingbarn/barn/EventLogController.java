@@ -0,0 +1,33 @@
+package com.codingbarn.barn;
+
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Catch-up reads from the {@link EventLog}.
+ * 
+ * A firehouse that was down during a fire doesn't need the barn to
+ * re-send everything to everyone. It asks for what it missed:
+ * 
+ *   GET /barn/events?since=41&limit=100
+ * 
+ * and keeps asking with the returned nextOffset until it's caught up.
+ */
+@RestController
+@RequestMapping("/barn")
+public class EventLogController {
+    
+    private static final int MAX_LIMIT = 1000;
+    
+    private final EventLog eventLog;
+    
+    public EventLogController(EventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+    
+    @GetMapping("/events")
+    public EventLog.EventBatch getEvents(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "100") int limit) {
+        return eventLog.readSince(since, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+}
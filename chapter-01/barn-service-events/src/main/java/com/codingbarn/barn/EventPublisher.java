@@ -0,0 +1,50 @@
+package com.codingbarn.barn;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * The one way events leave the barn service.
+ * 
+ * Whether an event comes from this barn's own /ignite or from a legacy
+ * barn the {@link LegacyBarnBridge} is watching, it goes through here:
+ * into the {@link EventLog}, out to /barn/stream, and on to every
+ * subscriber whose filters match.
+ */
+@Component
+public class EventPublisher {
+    
+    private final SubscriberRegistry subscribers;
+    private final WebhookDispatcher dispatcher;
+    private final EventLog eventLog;
+    private final EventStream eventStream;
+    
+    public EventPublisher(SubscriberRegistry subscribers, WebhookDispatcher dispatcher,
+                          EventLog eventLog, EventStream eventStream) {
+        this.subscribers = subscribers;
+        this.dispatcher = dispatcher;
+        this.eventLog = eventLog;
+        this.eventStream = eventStream;
+    }
+    
+    /**
+     * Log the event, then push it to every subscriber whose filters match it
+     * and to everyone listening on /barn/stream.
+     * 
+     * Logging first gives the event its offset, so a subscriber that
+     * misses the webhook can still find it later at /barn/events.
+     * 
+     * Delivery happens in the background (see {@link WebhookDispatcher}),
+     * so the caller gets an answer as soon as the event is accepted.
+     * 
+     * Failed deliveries are retried with backoff and eventually
+     * dead-lettered (see {@link WebhookOutbox}), and a subscriber that
+     * keeps failing trips its own circuit breaker.
+     * 
+     * @return how many webhook deliveries were enqueued
+     */
+    public int publish(BarnEvent event) {
+        BarnEvent sequenced = eventLog.append(event);
+        eventStream.publish(sequenced);
+        return dispatcher.dispatch(sequenced, subscribers.match(sequenced));
+    }
+}
@@ -0,0 +1,191 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events for anyone who'd rather listen than run a webhook.
+ * 
+ * Each event is turned into an SSE frame exactly once. The same byte array
+ * is then handed to every open connection's queue; nothing gets
+ * re-serialized per listener.
+ * 
+ * Every connection has its own small bounded queue and its own writer.
+ * A listener that can't keep up fills its queue and
+ * gets disconnected instead of slowing down the others. When it comes
+ * back with a Last-Event-ID, it's replayed what it missed from the
+ * {@link EventLog}.
+ * 
+ * Events are published after they've been appended to the log, outside
+ * its lock, so two events published at the same moment can reach a queue
+ * in either order. A writer that sees a frame further ahead than the next
+ * offset reads the missing ones from the log instead of waiting for them;
+ * the late frame is then recognized as already sent.
+ * 
+ * While nothing is happening, writers send a comment line as a heartbeat
+ * so proxies don't close idle connections and clients can tell the
+ * stream is still alive.
+ */
+@Component
+public class EventStream {
+    
+    private static final Logger log = LoggerFactory.getLogger(EventStream.class);
+    
+    private static final byte[] HEARTBEAT = ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+    
+    private final ObjectMapper objectMapper;
+    private final EventLog eventLog;
+    private final int bufferFrames;
+    private final long heartbeatMs;
+    
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong framesPublished = new AtomicLong(0);
+    private final AtomicLong slowDisconnects = new AtomicLong(0);
+    private volatile long lastFanoutNanos = 0;
+    
+    public EventStream(
+            ObjectMapper objectMapper,
+            EventLog eventLog,
+            @Value("${stream.buffer-frames:256}") int bufferFrames,
+            @Value("${stream.heartbeat-ms:15000}") long heartbeatMs) {
+        this.objectMapper = objectMapper;
+        this.eventLog = eventLog;
+        this.bufferFrames = bufferFrames;
+        this.heartbeatMs = heartbeatMs;
+    }
+    
+    /**
+     * Serialize the event once and queue it on every open connection.
+     */
+    public void publish(BarnEvent event) {
+        long start = System.nanoTime();
+        Frame frame = new Frame(event.offset(), toFrame(event));
+        for (Connection connection : connections) {
+            if (!connection.queue.offer(frame)) {
+                // Too slow to keep up; it can reconnect with Last-Event-ID
+                connection.closed = true;
+                connections.remove(connection);
+                slowDisconnects.incrementAndGet();
+            }
+        }
+        framesPublished.incrementAndGet();
+        lastFanoutNanos = System.nanoTime() - start;
+    }
+    
+    /**
+     * Serve one listener until it goes away. Runs on the MVC async task
+     * executor (a virtual thread per stream, since virtual threads are
+     * enabled), not on the servlet thread that accepted the request.
+     * 
+     * @param lastEventId the last offset the client saw, or -1 for "only new events"
+     */
+    public void serve(OutputStream out, long lastEventId) throws IOException {
+        long resumeFrom = lastEventId >= 0 ? lastEventId : eventLog.latestOffset();
+        Connection connection = new Connection(new ArrayBlockingQueue<>(bufferFrames));
+        // Register before replaying, so nothing published in between is missed
+        connections.add(connection);
+        try {
+            out.write("retry: 3000\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            
+            long lastSent = replay(out, resumeFrom);
+            
+            List<Frame> batch = new ArrayList<>();
+            while (!connection.closed) {
+                Frame first = connection.queue.poll(heartbeatMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    out.write(HEARTBEAT);
+                } else {
+                    batch.add(first);
+                    connection.queue.drainTo(batch);
+                    for (Frame frame : batch) {
+                        if (frame.offset() > lastSent + 1) {
+                            // An earlier event is still on its way to the queue; take it from the log
+                            lastSent = replay(out, lastSent);
+                        }
+                        // Otherwise already sent, by a replay
+                        if (frame.offset() > lastSent) {
+                            out.write(frame.bytes());
+                            lastSent = frame.offset();
+                        }
+                    }
+                    batch.clear();
+                }
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.debug("Stream listener went away: {}", e.getMessage());
+        } finally {
+            connections.remove(connection);
+        }
+    }
+    
+    public StreamStats getStats() {
+        return new StreamStats(
+            connections.size(),
+            framesPublished.get(),
+            slowDisconnects.get(),
+            lastFanoutNanos / 1000
+        );
+    }
+    
+    private long replay(OutputStream out, long lastEventId) throws IOException {
+        long lastSent = lastEventId;
+        while (true) {
+            EventLog.EventBatch batch = eventLog.readSince(lastSent, 500);
+            if (batch.events().isEmpty()) {
+                // Anything the log skipped over is gone; don't wait for it
+                return Math.max(lastSent, batch.nextOffset());
+            }
+            for (BarnEvent event : batch.events()) {
+                out.write(toFrame(event));
+                lastSent = event.offset();
+            }
+            out.flush();
+        }
+    }
+    
+    private byte[] toFrame(BarnEvent event) {
+        try {
+            String json = objectMapper.writeValueAsString(event);
+            String frame = "id: " + event.offset() + "\nevent: " + event.eventType() + "\ndata: " + json + "\n\n";
+            return frame.getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private static final class Connection {
+        private final BlockingQueue<Frame> queue;
+        private volatile boolean closed = false;
+        
+        private Connection(BlockingQueue<Frame> queue) {
+            this.queue = queue;
+        }
+    }
+    
+    private record Frame(long offset, byte[] bytes) {}
+    
+    /**
+     * @param lastFanoutMicros how long the last publish took to reach every connection's queue
+     */
+    public record StreamStats(int connections, long framesPublished, long slowDisconnects, long lastFanoutMicros) {}
+}
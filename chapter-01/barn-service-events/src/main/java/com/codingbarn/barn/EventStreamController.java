@@ -0,0 +1,45 @@
+package com.codingbarn.barn;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * A push channel that doesn't need the listener to run a web server.
+ * 
+ *   curl -N http://localhost:8082/barn/stream
+ * 
+ * Browsers can use EventSource, which reconnects on its own and sends
+ * Last-Event-ID so nothing is missed in between.
+ */
+@RestController
+@RequestMapping("/barn")
+public class EventStreamController {
+    
+    private final EventStream eventStream;
+    
+    public EventStreamController(EventStream eventStream) {
+        this.eventStream = eventStream;
+    }
+    
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> stream(
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+            @RequestParam(value = "lastEventId", required = false) Long lastEventIdParam) {
+        long lastEventId = lastEventIdHeader != null ? lastEventIdHeader
+            : lastEventIdParam != null ? lastEventIdParam
+            : -1;
+        
+        return ResponseEntity.ok()
+            .contentType(MediaType.TEXT_EVENT_STREAM)
+            .header("Cache-Control", "no-cache")
+            .header("X-Accel-Buffering", "no")
+            .body(out -> eventStream.serve(out, lastEventId));
+    }
+    
+    @GetMapping("/stream/stats")
+    public EventStream.StreamStats getStreamStats() {
+        return eventStream.getStats();
+    }
+}
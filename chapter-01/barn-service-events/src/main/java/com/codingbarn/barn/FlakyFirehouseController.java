@@ -0,0 +1,45 @@
+package com.codingbarn.barn;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in firehouse that fails some of the time.
+ * 
+ * Subscribe it to the barn to watch retries, backoff and the dead-letter
+ * file at work without having to kill real subscribers:
+ * 
+ *   curl -X POST "localhost:8082/barn/subscribe?callbackUrl=http://localhost:8082/flaky-firehouse/events"
+ */
+@RestController
+@RequestMapping("/flaky-firehouse")
+public class FlakyFirehouseController {
+    
+    @Value("${flaky-firehouse.failure-rate:0.3}")
+    private double failureRate;
+    
+    private final AtomicInteger accepted = new AtomicInteger(0);
+    private final AtomicInteger rejected = new AtomicInteger(0);
+    
+    @PostMapping("/events")
+    public String receive(@RequestBody BarnEvent event) {
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            rejected.incrementAndGet();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Flaky firehouse dropped the call");
+        }
+        accepted.incrementAndGet();
+        return "ok";
+    }
+    
+    @GetMapping("/stats")
+    public FlakyStats getStats() {
+        return new FlakyStats(accepted.get(), rejected.get());
+    }
+    
+    public record FlakyStats(int accepted, int rejected) {}
+}
@@ -0,0 +1,146 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells subscribers that asked for it that the barn is still here.
+ * 
+ * Silence is ambiguous: it can mean no barn is burning, or that the
+ * webhooks stopped getting through. A subscriber that gets a HEARTBEAT
+ * every few seconds can tell the difference, and fall back to polling
+ * when they stop.
+ * 
+ * Heartbeats go straight to the transport - not through the outbox, no
+ * retries, no circuit breaker. A heartbeat that doesn't arrive is exactly
+ * what the subscriber should notice. They do come in the same shape as
+ * the subscriber's events, though: a subscriber that asked for batches
+ * gets a batch of one, as a JSON array or NDJSON.
+ */
+@Component
+public class HeartbeatSender {
+    
+    private static final Logger log = LoggerFactory.getLogger(HeartbeatSender.class);
+    
+    private static final String NDJSON = "application/x-ndjson";
+    
+    private final SubscriberRegistry subscribers;
+    private final DeliveryTransport transport;
+    private final ObjectMapper objectMapper;
+    private final EventLog eventLog;
+    private final String barnId;
+    
+    private final Map<String, Long> lastSentAt = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("heartbeats").daemon().factory());
+    
+    public HeartbeatSender(
+            SubscriberRegistry subscribers,
+            DeliveryTransport transport,
+            ObjectMapper objectMapper,
+            EventLog eventLog,
+            @Value("${barn.id:main-barn}") String barnId) {
+        this.subscribers = subscribers;
+        this.transport = transport;
+        this.objectMapper = objectMapper;
+        this.eventLog = eventLog;
+        this.barnId = barnId;
+        scheduler.scheduleWithFixedDelay(this::sendDue, 1, 1, TimeUnit.SECONDS);
+    }
+    
+    public HeartbeatStats getStats() {
+        return new HeartbeatStats(lastSentAt.size(), sent.get(), failed.get());
+    }
+    
+    private void sendDue() {
+        long now = System.currentTimeMillis();
+        byte[] payload = null;
+        for (SubscriberRegistry.Subscription subscription : subscribers.subscriptions()) {
+            if (subscription.heartbeatSeconds() <= 0) {
+                continue;
+            }
+            String url = subscription.callbackUrl();
+            Long last = lastSentAt.get(url);
+            if (last != null && now - last < subscription.heartbeatSeconds() * 1000) {
+                continue;
+            }
+            lastSentAt.put(url, now);
+            if (payload == null) {
+                payload = encode(BarnEvent.heartbeat(barnId, eventLog.latestOffset()));
+            }
+            BatchOptions batching = subscription.batching();
+            byte[] heartbeat;
+            String contentType;
+            if (!batching.isBatching()) {
+                heartbeat = payload;
+                contentType = MediaType.APPLICATION_JSON_VALUE;
+            } else if (batching.isNdjson()) {
+                heartbeat = wrap(payload, "", "\n");
+                contentType = NDJSON;
+            } else {
+                heartbeat = wrap(payload, "[", "]");
+                contentType = MediaType.APPLICATION_JSON_VALUE;
+            }
+            executor.execute(() -> send(url, heartbeat, contentType));
+        }
+        // Forget subscribers that have gone away
+        lastSentAt.keySet().removeIf(url -> subscribers.get(url) == null);
+    }
+    
+    private void send(String url, byte[] payload, String contentType) {
+        try {
+            transport.send(url, payload, contentType);
+            sent.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.debug("Heartbeat to {} failed: {}", url, e.getMessage());
+        }
+    }
+    
+    private static byte[] wrap(byte[] payload, String before, String after) {
+        byte[] wrapped = new byte[before.length() + payload.length + after.length()];
+        System.arraycopy(before.getBytes(StandardCharsets.US_ASCII), 0, wrapped, 0, before.length());
+        System.arraycopy(payload, 0, wrapped, before.length(), payload.length);
+        System.arraycopy(after.getBytes(StandardCharsets.US_ASCII), 0, wrapped, before.length() + payload.length,
+            after.length());
+        return wrapped;
+    }
+    
+    private byte[] encode(BarnEvent event) {
+        try {
+            return objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+    
+    /**
+     * @param subscribers subscribers getting heartbeats
+     */
+    public record HeartbeatStats(int subscribers, long sent, long failed) {}
+}
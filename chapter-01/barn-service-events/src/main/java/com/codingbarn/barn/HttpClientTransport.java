@@ -0,0 +1,49 @@
+package com.codingbarn.barn;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Delivers with the JDK's HttpClient.
+ * 
+ * One client is shared by every delivery, so connections to a firehouse
+ * are kept alive and reused instead of opened per event. When the
+ * subscriber speaks HTTP/2, all deliveries to it are multiplexed over a
+ * single connection; otherwise it falls back to pooled HTTP/1.1.
+ */
+@Component
+@ConditionalOnProperty(name = "delivery.transport", havingValue = "http-client", matchIfMissing = true)
+public class HttpClientTransport implements DeliveryTransport {
+    
+    private final HttpClient client;
+    private final Duration timeout;
+    
+    public HttpClientTransport(@Value("${delivery.timeout-ms:2000}") long timeoutMs) {
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(timeout)
+            .build();
+    }
+    
+    @Override
+    public void send(String subscriberUrl, byte[] payload, String contentType) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(subscriberUrl))
+            .timeout(timeout)
+            .header("Content-Type", contentType)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(payload))
+            .build();
+        
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException(response.statusCode() + " from " + subscriberUrl);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.codingbarn.barn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small lock-free latency histogram in the spirit of HdrHistogram.
+ * 
+ * Values are sorted into log-linear buckets: every power of two is split
+ * into 32 equal sub-buckets, so any recorded value is known to within
+ * about 3%, from 1 microsecond up to days, in a fixed 2048-slot array.
+ * 
+ * Recording is a couple of bit operations and one atomic increment - no
+ * locks and no allocation - so it's safe to call on every delivery.
+ */
+class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+    
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(v));
+        totalCount.incrementAndGet();
+        long currentMax;
+        while (v > (currentMax = max.get()) && !max.compareAndSet(currentMax, v)) {
+            // lost the race to another recorder; try again
+        }
+    }
+    
+    long count() {
+        return totalCount.get();
+    }
+    
+    long max() {
+        return max.get();
+    }
+    
+    /**
+     * The value below which the given fraction of recordings fall,
+     * e.g. 0.99 for p99. Reported as the middle of its bucket.
+     */
+    long percentile(double fraction) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketMidpoint(i), max.get());
+            }
+        }
+        return max.get();
+    }
+    
+    /**
+     * Add everything recorded in {@code other} into this histogram.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get()) && !max.compareAndSet(currentMax, otherMax)) {
+            // retry
+        }
+    }
+    
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        max.set(0);
+    }
+    
+    Summary summary() {
+        return new Summary(count(), percentile(0.50), percentile(0.99), percentile(0.999), max());
+    }
+    
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    private static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + ((1L << shift) >> 1);
+    }
+    
+    public record Summary(long count, long p50, long p99, long p999, long max) {}
+}
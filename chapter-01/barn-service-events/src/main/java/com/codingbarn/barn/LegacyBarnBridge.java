@@ -0,0 +1,282 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns legacy barns into event sources.
+ * 
+ * Old barns like the fragile one will never call a webhook. Rather than
+ * have every firehouse poll every one of them (and knock them over), the
+ * bridge polls each legacy barn once, within that barn's own rate limit,
+ * and when the status changes it publishes a FIRE or EXTINGUISHED event
+ * through the same {@link EventPublisher} as this barn's own events.
+ * 
+ * Firehouses subscribe once and hear about old and new barns alike. The
+ * legacy barns see one polite client, however many firehouses there are.
+ * 
+ * Barns are configured as id=baseUrl pairs, e.g.
+ * {@code bridge.barns=fragile-barn=http://localhost:8080/fragile-barn};
+ * the bridge polls baseUrl/status and reads its budget from
+ * baseUrl/rate-limit. A barn without that endpoint is polled every
+ * {@code bridge.fallback-interval-ms}, and isn't asked again.
+ * 
+ * FIRE events are named after the barn and when the fire started, so a
+ * fire that was already burning when the bridge (re)started is published
+ * under the same id as before, and subscribers drop it as a duplicate.
+ */
+@Component
+public class LegacyBarnBridge {
+    
+    private static final Logger log = LoggerFactory.getLogger(LegacyBarnBridge.class);
+    
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    
+    private final EventPublisher publisher;
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final Duration timeout;
+    private final String clientId;
+    private final long fallbackIntervalMs;
+    private final List<BridgedBarn> barns = new ArrayList<>();
+    
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("bridge-poller").daemon().factory());
+    
+    public LegacyBarnBridge(
+            EventPublisher publisher,
+            ObjectMapper objectMapper,
+            @Value("${bridge.barns:}") List<String> barns,
+            @Value("${bridge.client-id:barn-bridge}") String clientId,
+            @Value("${bridge.timeout-ms:2000}") long timeoutMs,
+            @Value("${bridge.fallback-interval-ms:10000}") long fallbackIntervalMs) {
+        this.publisher = publisher;
+        this.objectMapper = objectMapper;
+        this.clientId = clientId;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.fallbackIntervalMs = fallbackIntervalMs;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        
+        for (String entry : barns) {
+            int separator = entry.indexOf('=');
+            if (entry.isBlank()) {
+                continue;
+            }
+            if (separator <= 0) {
+                throw new IllegalArgumentException("bridge.barns entries look like id=baseUrl, got: " + entry);
+            }
+            this.barns.add(new BridgedBarn(entry.substring(0, separator).strip(), entry.substring(separator + 1).strip()));
+        }
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        for (BridgedBarn barn : barns) {
+            log.info("🌉 Bridging legacy barn {} at {}", barn.id, barn.baseUrl);
+            executor.execute(() -> poll(barn));
+        }
+    }
+    
+    public List<BridgeStats> getStats() {
+        return barns.stream().map(BridgedBarn::stats).toList();
+    }
+    
+    /**
+     * One poll of one barn. Schedules the next one when it's done, so each
+     * barn has at most one request in flight.
+     */
+    private void poll(BridgedBarn barn) {
+        long delayMs = barn.intervalMs > 0 ? barn.intervalMs
+            : barn.budgetMissing ? fallbackIntervalMs
+            : readBudget(barn);
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(barn.baseUrl + "/status"))
+                .timeout(timeout)
+                .header(CLIENT_ID_HEADER, clientId);
+            if (barn.etag != null) {
+                request.header("If-None-Match", barn.etag);
+            }
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            barn.polls.incrementAndGet();
+            barn.lastPolledAt = Instant.now();
+            
+            if (response.statusCode() == 304) {
+                barn.notModified.incrementAndGet();
+            } else if (response.statusCode() == 200) {
+                barn.etag = response.headers().firstValue("ETag").orElse(null);
+                observe(barn, objectMapper.readValue(response.body(), BarnStatus.class));
+            } else {
+                barn.errors.incrementAndGet();
+                long retryAfterSeconds = response.headers().firstValueAsLong("Retry-After").orElse(0);
+                delayMs = Math.max(delayMs, retryAfterSeconds * 1000);
+                // Our budget may have changed; read it again next time
+                if (!barn.budgetMissing) {
+                    barn.intervalMs = -1;
+                }
+                log.warn("⚠ Legacy barn {} answered {}, backing off {} ms", barn.id, response.statusCode(), delayMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            barn.errors.incrementAndGet();
+            log.warn("⚠ Could not poll legacy barn {}: {}", barn.id, e.getMessage());
+        }
+        
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(() -> executor.execute(() -> poll(barn)), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Compare with what we saw last time and publish the difference.
+     */
+    private void observe(BridgedBarn barn, BarnStatus status) {
+        BarnStatus previous = barn.lastStatus;
+        barn.lastStatus = status;
+        
+        BarnEvent event = null;
+        if (status.isOnFire() && (previous == null || !previous.isOnFire()
+                || !Objects.equals(previous.fireStartedAt(), status.fireStartedAt()))) {
+            // Stamp it with when the fire started, not when we noticed
+            Instant startedAt = status.fireStartedAt() != null ? status.fireStartedAt() : Instant.now();
+            event = BarnEvent.fire(barn.id, startedAt);
+        } else if (!status.isOnFire() && previous != null && previous.isOnFire()) {
+            event = BarnEvent.extinguished(barn.id);
+        }
+        
+        if (event != null) {
+            barn.eventsPublished.incrementAndGet();
+            int enqueued = publisher.publish(event);
+            log.warn("🌉 {} in legacy barn {} - enqueued {} deliveries", event.eventType(), barn.id, enqueued);
+        }
+    }
+    
+    /**
+     * Poll at the barn's own pace: its period divided by the requests it
+     * allows us, from its rate-limit endpoint.
+     */
+    private long readBudget(BridgedBarn barn) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(barn.baseUrl + "/rate-limit"))
+                .timeout(timeout)
+                .header(CLIENT_ID_HEADER, clientId)
+                .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 404) {
+                noBudget(barn, "no rate-limit endpoint");
+                return fallbackIntervalMs;
+            }
+            if (response.statusCode() != 200) {
+                // There is one, it's just unhappy right now; ask again next time
+                log.debug("Rate limit for {} answered {}", barn.id, response.statusCode());
+                return fallbackIntervalMs;
+            }
+            JsonNode budget = objectMapper.readTree(response.body());
+            long periodMs = budget.path("periodSeconds").asLong() * 1000;
+            int maxRequests = budget.path("maxRequests").asInt();
+            if (periodMs > 0 && maxRequests > 0) {
+                barn.intervalMs = (periodMs + maxRequests - 1) / maxRequests;
+                log.info("🌉 Legacy barn {} allows {} requests per {} s - polling every {} ms",
+                    barn.id, maxRequests, periodMs / 1000, barn.intervalMs);
+                return barn.intervalMs;
+            }
+            noBudget(barn, "rate-limit endpoint doesn't say");
+        } catch (JsonProcessingException e) {
+            noBudget(barn, "rate-limit endpoint doesn't answer in JSON");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.debug("No rate limit info from {}: {}", barn.id, e.getMessage());
+        }
+        return fallbackIntervalMs;
+    }
+    
+    /**
+     * Asking a barn that has no budget to give on every poll would double
+     * the load on exactly the barns we're trying to be gentle with.
+     */
+    private void noBudget(BridgedBarn barn, String why) {
+        barn.budgetMissing = true;
+        log.info("🌉 Legacy barn {} has no budget ({}) - polling every {} ms",
+            barn.id, why, fallbackIntervalMs);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Everything the bridge remembers about one legacy barn. Only ever
+     * touched by that barn's own poll, one at a time.
+     */
+    private static final class BridgedBarn {
+        private final String id;
+        private final String baseUrl;
+        private volatile long intervalMs = -1;
+        private volatile boolean budgetMissing;
+        private volatile String etag;
+        private volatile BarnStatus lastStatus;
+        private volatile Instant lastPolledAt;
+        private final AtomicLong polls = new AtomicLong(0);
+        private final AtomicLong notModified = new AtomicLong(0);
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong eventsPublished = new AtomicLong(0);
+        
+        private BridgedBarn(String id, String baseUrl) {
+            this.id = id;
+            this.baseUrl = baseUrl;
+        }
+        
+        private BridgeStats stats() {
+            BarnStatus status = lastStatus;
+            return new BridgeStats(id, baseUrl, status != null ? status.status() : null,
+                budgetMissing ? -1 : intervalMs, !budgetMissing,
+                polls.get(), notModified.get(), errors.get(), eventsPublished.get(), lastPolledAt);
+        }
+    }
+    
+    /**
+     * @param pollIntervalMs time between polls, from the barn's budget (-1 until known)
+     * @param hasBudget false once the barn turned out not to publish one
+     * @param eventsPublished FIRE/EXTINGUISHED events published for this barn
+     */
+    public record BridgeStats(
+        String barnId,
+        String baseUrl,
+        String lastStatus,
+        long pollIntervalMs,
+        boolean hasBudget,
+        long polls,
+        long notModified,
+        long errors,
+        long eventsPublished,
+        Instant lastPolledAt
+    ) {}
+}
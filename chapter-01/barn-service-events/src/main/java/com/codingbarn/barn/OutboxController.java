@@ -0,0 +1,77 @@
+package com.codingbarn.barn;
+
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * A window into the webhook outbox.
+ * 
+ * When a firehouse has been unreachable for long enough, its deliveries
+ * end up in the dead-letter file. Look at them here, fix whatever was
+ * wrong, and replay them.
+ */
+@RestController
+@RequestMapping("/barn")
+public class OutboxController {
+    
+    private final WebhookOutbox outbox;
+    private final WebhookDispatcher dispatcher;
+    private final HeartbeatSender heartbeats;
+    
+    public OutboxController(WebhookOutbox outbox, WebhookDispatcher dispatcher, HeartbeatSender heartbeats) {
+        this.outbox = outbox;
+        this.dispatcher = dispatcher;
+        this.heartbeats = heartbeats;
+    }
+    
+    /**
+     * Deliveries that are enqueued but not yet acknowledged.
+     */
+    @GetMapping("/outbox")
+    public List<WebhookOutbox.OutboxEntry> getPending() {
+        return outbox.pendingEntries();
+    }
+    
+    @GetMapping("/dead-letters")
+    public List<WebhookOutbox.OutboxRecord> getDeadLetters() {
+        return outbox.deadLetters();
+    }
+    
+    /**
+     * Move everything in the dead-letter file back into the outbox.
+     */
+    @PostMapping("/dead-letters/replay")
+    public String replayDeadLetters() {
+        int replayed = dispatcher.replayDeadLetters();
+        return "Replaying " + replayed + " dead-lettered deliveries.";
+    }
+    
+    @GetMapping("/delivery-stats")
+    public WebhookDispatcher.DeliveryStats getDeliveryStats() {
+        return dispatcher.getStats();
+    }
+    
+    /**
+     * Success/failure/retry counters and send latency per subscriber and
+     * event type.
+     */
+    @GetMapping("/delivery-stats/subscribers")
+    public List<DeliveryMetrics.SubscriberStats> getSubscriberDeliveryStats() {
+        return dispatcher.subscriberStats();
+    }
+    
+    /**
+     * Queue depth and queue latency per priority - urgent events should
+     * stay fast however much routine traffic is queued up behind them.
+     */
+    @GetMapping("/delivery-lanes")
+    public List<WebhookDispatcher.LaneStats> getDeliveryLanes() {
+        return dispatcher.laneStats();
+    }
+    
+    @GetMapping("/heartbeats")
+    public HeartbeatSender.HeartbeatStats getHeartbeats() {
+        return heartbeats.getStats();
+    }
+}
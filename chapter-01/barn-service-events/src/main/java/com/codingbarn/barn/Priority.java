@@ -0,0 +1,13 @@
+package com.codingbarn.barn;
+
+/**
+ * Delivery priority classes.
+ * 
+ * URGENT events (by default just FIRE) get their own queue per subscriber
+ * and their own slice of delivery capacity; ROUTINE events can pile up
+ * as much as they like without delaying a fire alarm.
+ */
+public enum Priority {
+    URGENT,
+    ROUTINE
+}
@@ -0,0 +1,44 @@
+package com.codingbarn.barn;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per second over a short sliding window.
+ * 
+ * One slot per second, reused round-robin. Each slot remembers which
+ * second it belongs to, so a stale slot is reset the first time the
+ * clock comes back around to it.
+ */
+class RateMeter {
+    
+    private static final int WINDOW_SECONDS = 10;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray seconds = new AtomicLongArray(WINDOW_SECONDS);
+    
+    void record() {
+        long now = System.currentTimeMillis() / 1000;
+        int slot = (int) (now % WINDOW_SECONDS);
+        long slotSecond = seconds.get(slot);
+        if (slotSecond != now && seconds.compareAndSet(slot, slotSecond, now)) {
+            counts.set(slot, 0);
+        }
+        counts.incrementAndGet(slot);
+    }
+    
+    /**
+     * Average rate over the last full window, not counting the current
+     * (still filling) second.
+     */
+    double perSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long age = now - seconds.get(i);
+            if (age >= 1 && age <= WINDOW_SECONDS) {
+                total += counts.get(i);
+            }
+        }
+        return total / (double) WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,38 @@
+package com.codingbarn.barn;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * Delivers with a plain RestTemplate, the way the barn always used to.
+ * Kept around for comparison with {@link HttpClientTransport}.
+ */
+@Component
+@ConditionalOnProperty(name = "delivery.transport", havingValue = "rest-template")
+public class RestTemplateTransport implements DeliveryTransport {
+    
+    private final RestTemplate restTemplate;
+    
+    public RestTemplateTransport(
+            RestTemplateBuilder restTemplateBuilder,
+            @Value("${delivery.timeout-ms:2000}") long timeoutMs) {
+        this.restTemplate = restTemplateBuilder
+            .setConnectTimeout(Duration.ofMillis(timeoutMs))
+            .setReadTimeout(Duration.ofMillis(timeoutMs))
+            .build();
+    }
+    
+    @Override
+    public void send(String subscriberUrl, byte[] payload, String contentType) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+        restTemplate.postForObject(subscriberUrl, new HttpEntity<>(payload, headers), String.class);
+    }
+}
@@ -0,0 +1,59 @@
+package com.codingbarn.barn;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram over a sliding window of time.
+ * 
+ * Works like {@link RateMeter}: the window is split into slots, each with
+ * its own {@link LatencyHistogram}, reused round-robin. A slot remembers
+ * which interval it belongs to and is reset the first time the clock
+ * comes back around to it, so recording never allocates.
+ * 
+ * Reading merges the slots that fall inside the requested window into a
+ * fresh histogram. That allocates, but only when someone asks for stats.
+ */
+class RollingLatency {
+    
+    private final long slotMs;
+    private final LatencyHistogram[] slots;
+    private final AtomicLongArray intervals;
+    
+    RollingLatency(long slotMs, int slotCount) {
+        this.slotMs = slotMs;
+        this.slots = new LatencyHistogram[slotCount];
+        this.intervals = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new LatencyHistogram();
+            intervals.set(i, -1);
+        }
+    }
+    
+    void record(long value) {
+        long interval = System.currentTimeMillis() / slotMs;
+        int slot = (int) (interval % slots.length);
+        long slotInterval = intervals.get(slot);
+        if (slotInterval != interval && intervals.compareAndSet(slot, slotInterval, interval)) {
+            // A recorder racing with this reset may lose a value; close enough for stats
+            slots[slot].reset();
+        }
+        slots[slot].record(value);
+    }
+    
+    /**
+     * Percentiles over the most recent {@code windowMs}, including the
+     * current (still filling) slot.
+     */
+    LatencyHistogram.Summary summary(long windowMs) {
+        long now = System.currentTimeMillis() / slotMs;
+        long windowSlots = Math.min(slots.length, Math.max(1, windowMs / slotMs));
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int i = 0; i < slots.length; i++) {
+            long age = now - intervals.get(i);
+            if (age >= 0 && age < windowSlots) {
+                merged.add(slots[i]);
+            }
+        }
+        return merged.summary();
+    }
+}
@@ -0,0 +1,170 @@
+package com.codingbarn.barn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything the dispatcher keeps per subscriber: bounded queues of
+ * deliveries waiting to go out, a circuit breaker, and a flag saying
+ * whether a delivery loop is currently running for it.
+ * 
+ * At most one loop drains a channel at a time, so a slow subscriber only
+ * ever ties up one virtual thread and its own queue - never anyone else's.
+ * 
+ * Urgent deliveries (fires) have a queue of their own that is always
+ * drained first, so they never wait behind a backlog of routine events.
+ */
+class SubscriberChannel {
+    
+    enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST }
+    
+    private final String subscriberUrl;
+    private final ArrayBlockingQueue<Delivery> urgent;
+    private final ArrayBlockingQueue<Delivery> routine;
+    private final CircuitBreaker breaker;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+    private final AtomicBoolean lingering = new AtomicBoolean(false);
+    private volatile BatchOptions batching = BatchOptions.NONE;
+    private final AtomicLong dropped = new AtomicLong(0);
+    
+    SubscriberChannel(String subscriberUrl, int capacity, CircuitBreaker breaker, OverflowPolicy overflowPolicy) {
+        this.subscriberUrl = subscriberUrl;
+        this.urgent = new ArrayBlockingQueue<>(capacity);
+        this.routine = new ArrayBlockingQueue<>(capacity);
+        this.breaker = breaker;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Queue a delivery in the lane for its priority.
+     * 
+     * @return the entry that had to be dropped to stay within capacity,
+     *         or null if nothing was dropped
+     */
+    synchronized Delivery offer(Delivery entry) {
+        ArrayBlockingQueue<Delivery> queue = entry.priority() == Priority.URGENT ? urgent : routine;
+        if (queue.offer(entry)) {
+            return null;
+        }
+        dropped.incrementAndGet();
+        if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            return entry;
+        }
+        // Offers are synchronized, so after this poll there's room
+        Delivery oldest = queue.poll();
+        queue.offer(entry);
+        return oldest;
+    }
+    
+    Delivery peek() {
+        Delivery head = urgent.peek();
+        return head != null ? head : routine.peek();
+    }
+    
+    Delivery poll() {
+        Delivery head = urgent.poll();
+        return head != null ? head : routine.poll();
+    }
+    
+    /**
+     * Take up to {@code max} deliveries off the queues, urgent ones first,
+     * oldest first within each lane.
+     */
+    List<Delivery> pollBatch(int max) {
+        List<Delivery> batch = new ArrayList<>(max);
+        urgent.drainTo(batch, max);
+        if (batch.size() < max) {
+            routine.drainTo(batch, max - batch.size());
+        }
+        return batch;
+    }
+    
+    int queued(Priority priority) {
+        return priority == Priority.URGENT ? urgent.size() : routine.size();
+    }
+    
+    boolean isEmpty() {
+        return urgent.isEmpty() && routine.isEmpty();
+    }
+    
+    int size() {
+        return urgent.size() + routine.size();
+    }
+    
+    BatchOptions batching() {
+        return batching;
+    }
+    
+    void setBatching(BatchOptions batching) {
+        this.batching = batching;
+    }
+    
+    boolean startDraining() {
+        return draining.compareAndSet(false, true);
+    }
+    
+    void stopDraining() {
+        draining.set(false);
+    }
+    
+    /**
+     * Mark the channel as waiting for its breaker to let a probe through.
+     * Returns false if someone already scheduled the wake-up.
+     */
+    boolean park() {
+        return parked.compareAndSet(false, true);
+    }
+    
+    void unpark() {
+        parked.set(false);
+    }
+    
+    boolean isParked() {
+        return parked.get();
+    }
+    
+    /**
+     * Mark the channel as holding a partial batch until its linger time is
+     * up. Returns false if the wake-up is already scheduled.
+     */
+    boolean startLingering() {
+        return lingering.compareAndSet(false, true);
+    }
+    
+    void stopLingering() {
+        lingering.set(false);
+    }
+    
+    boolean isLingering() {
+        return lingering.get();
+    }
+    
+    CircuitBreaker breaker() {
+        return breaker;
+    }
+    
+    SubscriberHealth health() {
+        return new SubscriberHealth(
+            subscriberUrl,
+            breaker.state().name(),
+            breaker.consecutiveFailures(),
+            urgent.size(),
+            routine.size(),
+            dropped.get()
+        );
+    }
+    
+    public record SubscriberHealth(
+        String callbackUrl,
+        String circuit,
+        int consecutiveFailures,
+        int urgentQueueDepth,
+        int routineQueueDepth,
+        long dropped
+    ) {}
+}
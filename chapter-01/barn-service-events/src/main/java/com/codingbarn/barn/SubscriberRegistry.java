@@ -0,0 +1,231 @@
+package com.codingbarn.barn;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Who wants to hear about what.
+ * 
+ * Three firehouses fit fine in a list. A hundred thousand dashboards and
+ * alerting hooks don't: every subscribe would scan the list, and every
+ * fire would walk all of them even if most only care about one barn.
+ * 
+ * Subscriptions live in a map keyed by callback URL (O(1) dedupe), and
+ * each one is also filed in an inverted index under "eventType|barnId",
+ * with "*" standing in for "any". A FIRE in barn-7 only has to look at
+ * four buckets - FIRE|barn-7, FIRE|*, *|barn-7 and *|* - and everything
+ * it finds there is a match.
+ * 
+ * Subscriptions can carry a lease. Expired leases are reaped in the
+ * background from a queue ordered by expiry time, so the sweep only ever
+ * looks at subscriptions that are actually due. Each subscription has at
+ * most one lease in the queue - renewing swaps it - so a subscriber that
+ * renews every few seconds doesn't pile up stale ones, and index buckets
+ * nobody is filed under any more are dropped.
+ */
+@Component
+public class SubscriberRegistry {
+    
+    private static final Logger log = LoggerFactory.getLogger(SubscriberRegistry.class);
+    
+    private static final String ANY = "*";
+    
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> index = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Lease> leases = new PriorityBlockingQueue<>();
+    private final ScheduledExecutorService reaper =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("lease-reaper").daemon().factory());
+    private final WebhookDispatcher dispatcher;
+    
+    public SubscriberRegistry(
+            WebhookDispatcher dispatcher,
+            @Value("${subscriptions.expiry-sweep-ms:1000}") long sweepMs) {
+        this.dispatcher = dispatcher;
+        reaper.scheduleWithFixedDelay(this::expireLeases, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Add a subscription, or replace the filters and renew the lease of an
+     * existing one.
+     * 
+     * @param eventTypes only deliver these event types (empty = all)
+     * @param barnIds only deliver events from these barns (empty = all)
+     * @param leaseSeconds how long until the subscription expires (0 = never)
+     * @param batching how deliveries should be bundled ({@link BatchOptions#NONE} for one POST per event)
+     * @param heartbeatSeconds send a HEARTBEAT this often so the subscriber knows we're alive (0 = never)
+     * @return true if this callback URL was not subscribed before
+     */
+    public boolean subscribe(String callbackUrl, Collection<String> eventTypes,
+                             Collection<String> barnIds, long leaseSeconds, BatchOptions batching,
+                             long heartbeatSeconds) {
+        Instant expiresAt = leaseSeconds > 0 ? Instant.now().plusSeconds(leaseSeconds) : null;
+        Subscription subscription = new Subscription(
+            callbackUrl, Set.copyOf(eventTypes), Set.copyOf(barnIds), expiresAt, batching,
+            Math.max(0, heartbeatSeconds));
+        dispatcher.configure(callbackUrl, batching);
+        
+        boolean[] isNew = {false};
+        subscriptions.compute(callbackUrl, (url, previous) -> {
+            if (previous == null) {
+                isNew[0] = true;
+            } else {
+                unindex(previous);
+                dropLease(previous);
+            }
+            indexKeys(subscription).forEach(key -> index.compute(key, (k, urls) -> {
+                Set<String> bucket = urls != null ? urls : ConcurrentHashMap.newKeySet();
+                bucket.add(url);
+                return bucket;
+            }));
+            if (expiresAt != null) {
+                leases.add(new Lease(expiresAt, url));
+            }
+            return subscription;
+        });
+        return isNew[0];
+    }
+    
+    /**
+     * @return true if the callback URL was subscribed
+     */
+    public boolean unsubscribe(String callbackUrl) {
+        boolean[] removed = {false};
+        subscriptions.computeIfPresent(callbackUrl, (url, previous) -> {
+            unindex(previous);
+            dropLease(previous);
+            removed[0] = true;
+            return null;
+        });
+        if (removed[0]) {
+            dispatcher.forget(callbackUrl);
+        }
+        return removed[0];
+    }
+    
+    /**
+     * The callback URLs interested in this event - and nobody else.
+     */
+    public List<String> match(BarnEvent event) {
+        List<String> matches = new ArrayList<>();
+        // A subscription is filed under exactly one of these shapes, so no duplicates
+        addAll(matches, event.eventType() + "|" + event.barnId());
+        addAll(matches, event.eventType() + "|" + ANY);
+        addAll(matches, ANY + "|" + event.barnId());
+        addAll(matches, ANY + "|" + ANY);
+        return matches;
+    }
+    
+    public List<String> callbackUrls() {
+        return List.copyOf(subscriptions.keySet());
+    }
+    
+    public List<Subscription> subscriptions() {
+        return List.copyOf(subscriptions.values());
+    }
+    
+    public Subscription get(String callbackUrl) {
+        return subscriptions.get(callbackUrl);
+    }
+    
+    public int size() {
+        return subscriptions.size();
+    }
+    
+    private void addAll(List<String> matches, String key) {
+        Set<String> urls = index.get(key);
+        if (urls != null) {
+            matches.addAll(urls);
+        }
+    }
+    
+    private void unindex(Subscription subscription) {
+        for (String key : indexKeys(subscription)) {
+            index.computeIfPresent(key, (k, urls) -> {
+                urls.remove(subscription.callbackUrl());
+                return urls.isEmpty() ? null : urls;
+            });
+        }
+    }
+    
+    /**
+     * Renewals are rare next to deliveries, so a linear remove from the
+     * queue is fine.
+     */
+    private void dropLease(Subscription subscription) {
+        if (subscription.expiresAt() != null) {
+            leases.remove(new Lease(subscription.expiresAt(), subscription.callbackUrl()));
+        }
+    }
+    
+    private List<String> indexKeys(Subscription subscription) {
+        Set<String> types = subscription.eventTypes().isEmpty() ? Set.of(ANY) : subscription.eventTypes();
+        Set<String> barns = subscription.barnIds().isEmpty() ? Set.of(ANY) : subscription.barnIds();
+        List<String> keys = new ArrayList<>(types.size() * barns.size());
+        for (String type : types) {
+            for (String barn : barns) {
+                keys.add(type + "|" + barn);
+            }
+        }
+        return keys;
+    }
+    
+    private void expireLeases() {
+        Instant now = Instant.now();
+        Lease lease;
+        while ((lease = leases.peek()) != null && !lease.expiresAt().isAfter(now)) {
+            leases.poll();
+            Instant expiresAt = lease.expiresAt();
+            boolean[] expired = {false};
+            subscriptions.computeIfPresent(lease.callbackUrl(), (url, current) -> {
+                // A lease that lost a race with a renewal; the new one is queued too
+                if (!expiresAt.equals(current.expiresAt())) {
+                    return current;
+                }
+                unindex(current);
+                expired[0] = true;
+                return null;
+            });
+            if (expired[0]) {
+                dispatcher.forget(lease.callbackUrl());
+                log.info("⌛ Subscription lease expired: {}", lease.callbackUrl());
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+    }
+    
+    /**
+     * @param eventTypes event types to deliver (empty = all)
+     * @param barnIds barns to deliver events from (empty = all)
+     * @param expiresAt when the lease runs out (null = never)
+     * @param batching how deliveries are bundled
+     * @param heartbeatSeconds how often to send a HEARTBEAT (0 = never)
+     */
+    public record Subscription(String callbackUrl, Set<String> eventTypes, Set<String> barnIds,
+                               Instant expiresAt, BatchOptions batching, long heartbeatSeconds) {}
+    
+    private record Lease(Instant expiresAt, String callbackUrl) implements Comparable<Lease> {
+        @Override
+        public int compareTo(Lease other) {
+            return expiresAt.compareTo(other.expiresAt);
+        }
+    }
+}
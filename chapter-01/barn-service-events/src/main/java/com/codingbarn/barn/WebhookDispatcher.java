@@ -0,0 +1,618 @@
+package com.codingbarn.barn;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers events to subscribers in the background.
+ * 
+ * The first version of the barn called every webhook one after another,
+ * on the same thread that handled /ignite. One slow firehouse meant
+ * everyone after it (and the person yelling "fire!") had to wait.
+ * 
+ * Now each delivery runs on its own virtual thread, a semaphore caps how
+ * many are in flight at once, and every subscriber gets a hard timeout.
+ * 
+ * An event is serialized to JSON exactly once, no matter how many
+ * subscribers it goes to; the bytes are handed to the configured
+ * {@link DeliveryTransport}, which keeps connections alive between events.
+ * 
+ * Every delivery is written to the {@link WebhookOutbox} first. Failures
+ * are retried with exponential backoff and jitter; after too many
+ * attempts the delivery goes to the dead-letter file instead of vanishing.
+ * 
+ * Each subscriber gets its own {@link SubscriberChannel}: a bounded queue
+ * drained by one delivery loop, guarded by a {@link CircuitBreaker}. A dead
+ * firehouse trips its breaker and stops costing a timeout per event; a slow
+ * one fills up its own queue and sheds load there, while healthy
+ * subscribers carry on at full speed.
+ * 
+ * Events come in two priorities. Urgent ones (FIRE, unless configured
+ * otherwise) have their own queue in every channel, which is always
+ * drained first, and a few delivery slots that routine traffic can't
+ * take. A backlog of routine events can't hold up a fire alarm.
+ */
+@Component
+public class WebhookDispatcher {
+    
+    private static final Logger log = LoggerFactory.getLogger(WebhookDispatcher.class);
+    
+    private static final String NDJSON = "application/x-ndjson";
+    
+    private final DeliveryTransport transport;
+    private final ObjectMapper objectMapper;
+    private final WebhookOutbox outbox;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService retryScheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("webhook-retry").daemon().factory());
+    private final Semaphore inFlight;
+    private final Semaphore urgentReserved;
+    private final Set<String> urgentEventTypes;
+    private final Map<String, SubscriberChannel> channels = new ConcurrentHashMap<>();
+    private final Map<String, BatchOptions> batchingByUrl = new ConcurrentHashMap<>();
+    
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final int queueCapacity;
+    private final SubscriberChannel.OverflowPolicy overflowPolicy;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMs;
+    
+    private final RateMeter deliveryRate = new RateMeter();
+    private final DeliveryMetrics metrics;
+    private final AtomicLong delivered = new AtomicLong(0);
+    private final AtomicLong failedAttempts = new AtomicLong(0);
+    private final AtomicLong retriesScheduled = new AtomicLong(0);
+    private final AtomicLong deadLettered = new AtomicLong(0);
+    private final AtomicLong shortCircuited = new AtomicLong(0);
+    private final AtomicLong batchesSent = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong encodeNanos = new AtomicLong(0);
+    private final AtomicLong eventsEncoded = new AtomicLong(0);
+    private final Map<Priority, LatencyHistogram> queueLatency = new EnumMap<>(Map.of(
+        Priority.URGENT, new LatencyHistogram(),
+        Priority.ROUTINE, new LatencyHistogram()));
+    private volatile long lastDispatchMicros = 0;
+    private volatile int lastDispatchFanout = 0;
+    
+    public WebhookDispatcher(
+            DeliveryTransport transport,
+            ObjectMapper objectMapper,
+            WebhookOutbox outbox,
+            @Value("${delivery.max-concurrent:64}") int maxConcurrent,
+            @Value("${delivery.urgent-reserved:16}") int urgentReserved,
+            @Value("${delivery.urgent-event-types:FIRE}") Set<String> urgentEventTypes,
+            @Value("${delivery.max-attempts:8}") int maxAttempts,
+            @Value("${delivery.backoff-base-ms:200}") long backoffBaseMs,
+            @Value("${delivery.backoff-max-ms:60000}") long backoffMaxMs,
+            @Value("${delivery.queue-capacity:1000}") int queueCapacity,
+            @Value("${delivery.overflow-policy:DROP_OLDEST}") SubscriberChannel.OverflowPolicy overflowPolicy,
+            @Value("${breaker.failure-threshold:5}") int breakerFailureThreshold,
+            @Value("${breaker.open-ms:30000}") long breakerOpenMs,
+            @Value("${delivery.metrics.max-subscribers:100}") int metricsMaxSubscribers) {
+        this.transport = transport;
+        this.objectMapper = objectMapper;
+        this.outbox = outbox;
+        this.inFlight = new Semaphore(maxConcurrent);
+        this.urgentReserved = new Semaphore(urgentReserved);
+        this.urgentEventTypes = Set.copyOf(urgentEventTypes);
+        this.maxAttempts = maxAttempts;
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        this.breakerOpenMs = breakerOpenMs;
+        this.metrics = new DeliveryMetrics(metricsMaxSubscribers);
+    }
+    
+    /**
+     * Record an event in the outbox for every subscriber, then start
+     * delivering in the background.
+     * 
+     * Returns once the outbox records are on disk - one fsync for the
+     * whole batch - so an accepted event survives a crash.
+     * 
+     * @return how many deliveries were enqueued
+     */
+    public int dispatch(BarnEvent event, List<String> subscriberUrls) {
+        long start = System.nanoTime();
+        byte[] payload = encode(event);
+        Priority priority = priorityOf(event);
+        
+        List<CompletableFuture<WebhookOutbox.OutboxEntry>> entries = new ArrayList<>(subscriberUrls.size());
+        for (String subscriberUrl : subscriberUrls) {
+            entries.add(outbox.enqueue(subscriberUrl, event));
+        }
+        for (CompletableFuture<WebhookOutbox.OutboxEntry> entry : entries) {
+            submit(Delivery.of(entry.join(), payload, priority));
+        }
+        
+        lastDispatchMicros = (System.nanoTime() - start) / 1000;
+        lastDispatchFanout = entries.size();
+        return entries.size();
+    }
+    
+    /**
+     * Put dead letters back into the outbox and try them again.
+     */
+    public int replayDeadLetters() {
+        List<WebhookOutbox.OutboxEntry> entries = outbox.requeueDeadLetters();
+        entries.forEach(this::submit);
+        log.info("↻ Replaying {} dead-lettered deliveries", entries.size());
+        return entries.size();
+    }
+    
+    /**
+     * Pick up whatever the outbox says we still owe from before a restart.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePending() {
+        outbox.pendingEntries().forEach(this::submit);
+    }
+    
+    public DeliveryStats getStats() {
+        return new DeliveryStats(
+            delivered.get(),
+            failedAttempts.get(),
+            retriesScheduled.get(),
+            deadLettered.get(),
+            shortCircuited.get(),
+            batchesSent.get(),
+            coalesced.get(),
+            outbox.pendingCount(),
+            deliveryRate.perSecond(),
+            eventsEncoded.get() > 0 ? encodeNanos.get() / eventsEncoded.get() / 1000.0 : 0,
+            lastDispatchFanout,
+            lastDispatchMicros,
+            metrics.notificationLatency()
+        );
+    }
+    
+    /**
+     * Counters and attempt latency for every subscriber and event type.
+     */
+    public List<DeliveryMetrics.SubscriberStats> subscriberStats() {
+        return metrics.subscriberStats();
+    }
+    
+    /**
+     * Queue depth, free delivery slots and queue latency for each priority.
+     */
+    public List<LaneStats> laneStats() {
+        List<LaneStats> lanes = new ArrayList<>();
+        for (Priority priority : Priority.values()) {
+            int queued = 0;
+            for (SubscriberChannel channel : channels.values()) {
+                queued += channel.queued(priority);
+            }
+            lanes.add(new LaneStats(
+                priority,
+                queued,
+                priority == Priority.URGENT ? urgentReserved.availablePermits() + inFlight.availablePermits()
+                                            : inFlight.availablePermits(),
+                queueLatency.get(priority).summary()
+            ));
+        }
+        return lanes;
+    }
+    
+    public Priority priorityOf(BarnEvent event) {
+        return urgentEventTypes.contains(event.eventType()) ? Priority.URGENT : Priority.ROUTINE;
+    }
+    
+    /**
+     * Breaker state and queue depth for every subscriber we've delivered to.
+     */
+    public List<SubscriberChannel.SubscriberHealth> subscriberHealth() {
+        return channels.values().stream()
+            .map(SubscriberChannel::health)
+            .toList();
+    }
+    
+    /**
+     * Remember a subscriber's batching preferences. Its channel picks them
+     * up when the first delivery creates it, or right away if it exists.
+     */
+    public void configure(String subscriberUrl, BatchOptions batching) {
+        batchingByUrl.put(subscriberUrl, batching);
+        SubscriberChannel channel = channels.get(subscriberUrl);
+        if (channel != null) {
+            channel.setBatching(batching);
+        }
+    }
+    
+    /**
+     * Stop tracking a subscriber that unsubscribed. Anything still queued
+     * for it is dead-lettered rather than silently thrown away.
+     */
+    public void forget(String subscriberUrl) {
+        metrics.forget(subscriberUrl);
+        batchingByUrl.remove(subscriberUrl);
+        SubscriberChannel channel = channels.remove(subscriberUrl);
+        if (channel == null) {
+            return;
+        }
+        Delivery delivery;
+        while ((delivery = channel.poll()) != null) {
+            outbox.deadLetter(delivery.entry(), "unsubscribed");
+            deadLettered.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Recovered and replayed entries don't come with a payload; encode them here.
+     */
+    private void submit(WebhookOutbox.OutboxEntry entry) {
+        submit(Delivery.of(entry, encode(entry.event()), priorityOf(entry.event())));
+    }
+    
+    private void submit(Delivery delivery) {
+        enqueue(channelFor(delivery.entry().subscriberUrl()), delivery);
+    }
+    
+    /**
+     * A retry whose backoff is over. If the subscriber unsubscribed in the
+     * meantime its channel is gone, and the delivery goes to the dead
+     * letters like everything else that was still queued for it.
+     */
+    private void resubmit(Delivery delivery) {
+        SubscriberChannel channel = channels.get(delivery.entry().subscriberUrl());
+        if (channel == null) {
+            outbox.deadLetter(delivery.entry(), "unsubscribed");
+            deadLettered.incrementAndGet();
+            return;
+        }
+        enqueue(channel, delivery);
+    }
+    
+    private void enqueue(SubscriberChannel channel, Delivery delivery) {
+        Delivery dropped = channel.offer(delivery);
+        if (dropped != null) {
+            log.warn("  ⚠ Queue full for {}, dropping delivery {}",
+                delivery.entry().subscriberUrl(), dropped.entry().id());
+            outbox.deadLetter(dropped.entry(), "subscriber queue overflow");
+            deadLettered.incrementAndGet();
+            if (channel.breaker().state() == CircuitBreaker.State.OPEN) {
+                // Dropped while the breaker was holding the queue shut
+                shortCircuited.incrementAndGet();
+            }
+        }
+        kick(channel);
+    }
+    
+    private SubscriberChannel channelFor(String subscriberUrl) {
+        return channels.computeIfAbsent(subscriberUrl, url -> {
+            SubscriberChannel channel = new SubscriberChannel(
+                url, queueCapacity, new CircuitBreaker(breakerFailureThreshold, breakerOpenMs), overflowPolicy);
+            channel.setBatching(batchingByUrl.getOrDefault(url, BatchOptions.NONE));
+            return channel;
+        });
+    }
+    
+    private void kick(SubscriberChannel channel) {
+        if (!channel.isParked() && channel.startDraining()) {
+            executor.execute(() -> drain(channel));
+        }
+    }
+    
+    /**
+     * The delivery loop for one subscriber. Runs until the queue is empty,
+     * the breaker opens, or a partial batch is waiting out its linger
+     * time, then comes back later if there's more to do.
+     */
+    private void drain(SubscriberChannel channel) {
+        long waitMs;
+        try {
+            waitMs = drainWhileHealthy(channel);
+        } finally {
+            channel.stopDraining();
+        }
+        
+        if (waitMs > 0) {
+            if (channel.park()) {
+                retryScheduler.schedule(() -> {
+                    channel.unpark();
+                    kick(channel);
+                }, waitMs, TimeUnit.MILLISECONDS);
+            }
+        } else if (!channel.isEmpty() && !channel.isLingering()) {
+            kick(channel);
+        }
+    }
+    
+    private long drainWhileHealthy(SubscriberChannel channel) {
+        Delivery head;
+        while ((head = channel.peek()) != null) {
+            long waitMs = channel.breaker().tryAcquire(System.currentTimeMillis());
+            if (waitMs > 0) {
+                return waitMs;
+            }
+            
+            BatchOptions batching = channel.batching();
+            // Urgent events never wait for a batch to fill up
+            if (batching.isBatching() && head.priority() != Priority.URGENT) {
+                long lingerLeftMs = batching.lingerMs() - head.ageMillis();
+                if (channel.size() < batching.maxSize() && lingerLeftMs > 0) {
+                    lingerUntilBatchIsDue(channel, lingerLeftMs);
+                    return 0;
+                }
+            }
+            
+            List<Delivery> batch = channel.pollBatch(batching.maxSize());
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            if (batching.coalesce()) {
+                batch = coalesce(batch);
+            }
+            // Each lane goes out on its own slots, urgent first
+            List<Delivery> urgent = new ArrayList<>(batch.size());
+            List<Delivery> routine = new ArrayList<>(batch.size());
+            for (Delivery delivery : batch) {
+                (delivery.priority() == Priority.URGENT ? urgent : routine).add(delivery);
+            }
+            if (!urgent.isEmpty()) {
+                deliver(channel, urgent, batching, Priority.URGENT);
+            }
+            if (!routine.isEmpty()) {
+                deliver(channel, routine, batching, Priority.ROUTINE);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Hold a partial batch back until its oldest event has waited lingerMs.
+     * A batch that fills up in the meantime is sent straight away, since
+     * every new submit kicks the channel.
+     */
+    private void lingerUntilBatchIsDue(SubscriberChannel channel, long lingerLeftMs) {
+        if (channel.startLingering()) {
+            retryScheduler.schedule(() -> {
+                channel.stopLingering();
+                kick(channel);
+            }, lingerLeftMs, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Keep only the newest state event per barn, by offset - not by
+     * position in the batch, where urgent events come first. The older
+     * ones have been superseded, so they count as delivered. What's left
+     * is put back in offset order.
+     */
+    private List<Delivery> coalesce(List<Delivery> batch) {
+        Map<String, Delivery> newestByBarn = new HashMap<>();
+        for (Delivery delivery : batch) {
+            BarnEvent event = delivery.entry().event();
+            if (BatchOptions.STATE_EVENTS.contains(event.eventType())) {
+                newestByBarn.merge(event.barnId(), delivery,
+                    (current, candidate) -> offsetOf(candidate) >= offsetOf(current) ? candidate : current);
+            }
+        }
+        
+        List<Delivery> kept = new ArrayList<>(batch.size());
+        for (Delivery delivery : batch) {
+            BarnEvent event = delivery.entry().event();
+            if (BatchOptions.STATE_EVENTS.contains(event.eventType())
+                    && newestByBarn.get(event.barnId()) != delivery) {
+                outbox.markDelivered(delivery.entry());
+                coalesced.incrementAndGet();
+            } else {
+                kept.add(delivery);
+            }
+        }
+        kept.sort(Comparator.comparingLong(WebhookDispatcher::offsetOf));
+        return kept;
+    }
+    
+    private static long offsetOf(Delivery delivery) {
+        return delivery.entry().event().offset();
+    }
+    
+    /**
+     * Send one lane's share of a batch, on a slot from that lane.
+     */
+    private void deliver(SubscriberChannel channel, List<Delivery> batch, BatchOptions batching, Priority lane) {
+        Semaphore permits;
+        try {
+            permits = acquireSlot(lane);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        long now = System.nanoTime();
+        for (Delivery delivery : batch) {
+            queueLatency.get(delivery.priority()).record((now - delivery.enqueuedAtNanos()) / 1000);
+        }
+        
+        String subscriberUrl = batch.get(0).entry().subscriberUrl();
+        long sendStart = System.nanoTime();
+        try {
+            if (batching.isBatching()) {
+                String contentType = batching.isNdjson() ? NDJSON : MediaType.APPLICATION_JSON_VALUE;
+                transport.send(subscriberUrl, joinPayloads(batch, batching.isNdjson()), contentType);
+                batchesSent.incrementAndGet();
+            } else {
+                transport.send(subscriberUrl, batch.get(0).payload(), MediaType.APPLICATION_JSON_VALUE);
+            }
+            channel.breaker().onSuccess();
+            long attemptMicros = (System.nanoTime() - sendStart) / 1000;
+            for (Delivery delivery : batch) {
+                metrics.recordSuccess(delivery, attemptMicros);
+                outbox.markDelivered(delivery.entry());
+                delivered.incrementAndGet();
+                deliveryRate.record();
+            }
+            log.debug("  ✓ Notified: {} ({} events)", subscriberUrl, batch.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            channel.breaker().onFailure(System.currentTimeMillis());
+            failedAttempts.incrementAndGet();
+            long attemptMicros = (System.nanoTime() - sendStart) / 1000;
+            for (Delivery delivery : batch) {
+                metrics.recordFailure(delivery, attemptMicros);
+                retryOrDeadLetter(delivery.nextAttempt(), e.getMessage());
+            }
+        } finally {
+            permits.release();
+        }
+    }
+    
+    /**
+     * Routine deliveries share the common pool. Urgent ones take a reserved
+     * slot if there is one, borrow a common one if not, and only ever
+     * wait on the reserved pool - which routine traffic can't exhaust.
+     * 
+     * @return the semaphore to release when the delivery is done
+     */
+    private Semaphore acquireSlot(Priority priority) throws InterruptedException {
+        if (priority == Priority.ROUTINE) {
+            inFlight.acquire();
+            return inFlight;
+        }
+        if (urgentReserved.tryAcquire()) {
+            return urgentReserved;
+        }
+        if (inFlight.tryAcquire()) {
+            return inFlight;
+        }
+        urgentReserved.acquire();
+        return urgentReserved;
+    }
+    
+    /**
+     * Glue already-encoded events into one body - a JSON array or NDJSON -
+     * without serializing anything again.
+     */
+    private static byte[] joinPayloads(List<Delivery> batch, boolean ndjson) {
+        int size = 2;
+        for (Delivery delivery : batch) {
+            size += delivery.payload().length + 1;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(size);
+        if (!ndjson) {
+            body.write('[');
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0 && !ndjson) {
+                body.write(',');
+            }
+            body.writeBytes(batch.get(i).payload());
+            if (ndjson) {
+                body.write('\n');
+            }
+        }
+        if (!ndjson) {
+            body.write(']');
+        }
+        return body.toByteArray();
+    }
+    
+    private void retryOrDeadLetter(Delivery delivery, String error) {
+        WebhookOutbox.OutboxEntry entry = delivery.entry();
+        if (entry.attempts() >= maxAttempts) {
+            log.warn("  ☠ Giving up on {} after {} attempts: {}", entry.subscriberUrl(), entry.attempts(), error);
+            outbox.deadLetter(entry, error);
+            deadLettered.incrementAndGet();
+            return;
+        }
+        
+        long delayMs = backoffMs(entry.attempts());
+        log.warn("  ✗ Failed to notify {} (attempt {}): {} - retrying in {} ms",
+            entry.subscriberUrl(), entry.attempts(), error, delayMs);
+        outbox.recordAttempt(entry, error);
+        retriesScheduled.incrementAndGet();
+        metrics.recordRetry(delivery);
+        retryScheduler.schedule(() -> resubmit(delivery.requeued()), delayMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private byte[] encode(BarnEvent event) {
+        long start = System.nanoTime();
+        try {
+            return objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            encodeNanos.addAndGet(System.nanoTime() - start);
+            eventsEncoded.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Exponential backoff with "equal jitter": half the delay is fixed,
+     * the other half is random, so a crowd of failed deliveries doesn't
+     * all come back at the same instant.
+     */
+    private long backoffMs(int attempt) {
+        long ceiling = Math.min(backoffMaxMs, backoffBaseMs << Math.min(attempt - 1, 30));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+    
+    /**
+     * @param shortCircuited deliveries dropped from a full queue while the
+     *                       subscriber's breaker was open
+     * @param notificationLatencyMicros event-to-acknowledgement time per event type
+     */
+    public record DeliveryStats(
+        long delivered,
+        long failedAttempts,
+        long retriesScheduled,
+        long deadLettered,
+        long shortCircuited,
+        long batchesSent,
+        long coalesced,
+        int pending,
+        double deliveriesPerSecond,
+        double avgEncodeMicros,
+        int lastDispatchFanout,
+        long lastDispatchMicros,
+        Map<String, DeliveryMetrics.WindowedLatency> notificationLatencyMicros
+    ) {}
+    
+    /**
+     * @param queued deliveries of this priority waiting in subscriber queues
+     * @param availableSlots delivery slots this priority could use right now
+     * @param queueLatencyMicros time from enqueue to the start of the send
+     */
+    public record LaneStats(Priority priority, int queued, int availableSlots,
+                            LatencyHistogram.Summary queueLatencyMicros) {}
+}
@@ -0,0 +1,448 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A tiny append-only outbox for webhook deliveries.
+ * 
+ * Every delivery is written to a segment file on disk before we try it,
+ * and a DELIVERED or DEAD marker is appended once we're done with it.
+ * If the barn restarts halfway through a fire, whatever wasn't marked
+ * done gets delivered again on startup.
+ * 
+ * Writes go through a single writer thread that batches them and calls
+ * fsync once per batch ("group commit"), so a burst of a few hundred
+ * deliveries costs one disk flush instead of a few hundred.
+ * 
+ * Every failed attempt is recorded too, so a restart doesn't hand a
+ * delivery a fresh set of retries.
+ * 
+ * Deliveries that keep failing land in a separate dead-letter file where
+ * a human can look at them and replay them. Those go through the writer
+ * thread too, so a subscriber whose queue overflows costs one fsync per
+ * batch of dropped deliveries rather than one per delivery - and none on
+ * the thread that was publishing.
+ */
+@Component
+public class WebhookOutbox {
+    
+    private static final Logger log = LoggerFactory.getLogger(WebhookOutbox.class);
+    
+    private static final String ENQUEUED = "ENQUEUED";
+    private static final String ATTEMPTED = "ATTEMPTED";
+    private static final String DELIVERED = "DELIVERED";
+    private static final String DEAD = "DEAD";
+    private static final PendingWrite SHUTDOWN = new PendingWrite(Target.SEGMENT, new byte[0], 0, new CompletableFuture<>());
+    
+    private final ObjectMapper objectMapper;
+    private final Path segmentFile;
+    private final Path deadLetterFile;
+    private final long segmentMaxBytes;
+    private final int maxBatch;
+    
+    private final Map<Long, OutboxEntry> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingWrite> writes = new LinkedBlockingQueue<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    // Held while the dead-letter file is read or changed
+    private final Object deadLetterLock = new Object();
+    private final Object requeueLock = new Object();
+    
+    private Thread writer;
+    private FileChannel segment;
+    // Size of the segment as last compacted; only the writer thread touches it
+    private long compactedBytes = 0;
+    
+    public WebhookOutbox(
+            ObjectMapper objectMapper,
+            @Value("${outbox.dir:outbox}") String dir,
+            @Value("${outbox.segment-max-bytes:16777216}") long segmentMaxBytes,
+            @Value("${outbox.fsync-batch:256}") int maxBatch) {
+        this.objectMapper = objectMapper;
+        this.segmentFile = Path.of(dir, "outbox.log");
+        this.deadLetterFile = Path.of(dir, "dead-letter.log");
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.maxBatch = maxBatch;
+    }
+    
+    @PostConstruct
+    void start() throws IOException {
+        Files.createDirectories(segmentFile.getParent());
+        recover();
+        this.segment = FileChannel.open(segmentFile, CREATE, WRITE, APPEND);
+        
+        this.writer = Thread.ofPlatform().name("outbox-writer").daemon().start(this::writeLoop);
+    }
+    
+    /**
+     * Durably record a delivery we're about to attempt.
+     * The returned future completes once the record has been fsynced.
+     */
+    public CompletableFuture<OutboxEntry> enqueue(String subscriberUrl, BarnEvent event) {
+        OutboxEntry entry = new OutboxEntry(nextId.getAndIncrement(), subscriberUrl, event, 0);
+        pending.put(entry.id(), entry);
+        return append(new OutboxRecord(ENQUEUED, entry, null)).thenApply(ignored -> entry);
+    }
+    
+    /**
+     * Remember that an attempt failed. Not waited on: losing the last
+     * count in a crash costs at most one extra retry.
+     */
+    public void recordAttempt(OutboxEntry entry, String error) {
+        if (pending.replace(entry.id(), entry) != null) {
+            append(new OutboxRecord(ATTEMPTED, entry, error));
+        }
+    }
+    
+    public void markDelivered(OutboxEntry entry) {
+        if (pending.remove(entry.id()) != null) {
+            append(new OutboxRecord(DELIVERED, entry, null));
+        }
+    }
+    
+    /**
+     * Give up on a delivery: copy it to the dead-letter file and mark it done.
+     * Not waited on; the writer thread makes sure the copy is on disk
+     * before the DEAD marker is.
+     */
+    public void deadLetter(OutboxEntry entry, String lastError) {
+        OutboxRecord record = new OutboxRecord(DEAD, entry, lastError);
+        pending.remove(entry.id());
+        byte[] line = toLine(record);
+        writes.add(new PendingWrite(Target.DEAD_LETTERS, line, 0, new CompletableFuture<>()));
+        writes.add(new PendingWrite(Target.SEGMENT, line, 0, new CompletableFuture<>()));
+    }
+    
+    /**
+     * Everything that was enqueued but never delivered or dead-lettered.
+     */
+    public List<OutboxEntry> pendingEntries() {
+        List<OutboxEntry> entries = new ArrayList<>(pending.values());
+        entries.sort(Comparator.comparingLong(OutboxEntry::id));
+        return entries;
+    }
+    
+    public int pendingCount() {
+        return pending.size();
+    }
+    
+    public List<OutboxRecord> deadLetters() {
+        synchronized (deadLetterLock) {
+            return readRecords(deadLetterFile);
+        }
+    }
+    
+    /**
+     * Move everything in the dead-letter file back into the outbox, with
+     * a fresh set of attempts. The file is only emptied once the new
+     * outbox records are on disk; a crash in between means the entries
+     * are delivered twice (subscribers drop the repeat by event id)
+     * rather than lost.
+     * 
+     * Only the records that were read are removed, by the writer thread,
+     * so anything dead-lettered meanwhile stays in the file.
+     * 
+     * @return the re-enqueued entries, ready to be delivered
+     */
+    public List<OutboxEntry> requeueDeadLetters() {
+        synchronized (requeueLock) {
+            List<OutboxRecord> records;
+            long readBytes;
+            synchronized (deadLetterLock) {
+                readBytes = sizeOf(deadLetterFile);
+                records = readRecords(deadLetterFile);
+            }
+            List<CompletableFuture<OutboxEntry>> enqueued = new ArrayList<>();
+            for (OutboxRecord record : records) {
+                enqueued.add(enqueue(record.entry().subscriberUrl(), record.entry().event()));
+            }
+            List<OutboxEntry> entries = new ArrayList<>(enqueued.size());
+            for (CompletableFuture<OutboxEntry> entry : enqueued) {
+                entries.add(entry.join());
+            }
+            PendingWrite trim = new PendingWrite(Target.DEAD_LETTERS_TRIM, null, readBytes, new CompletableFuture<>());
+            writes.add(trim);
+            trim.done().join();
+            return entries;
+        }
+    }
+    
+    private CompletableFuture<Void> append(OutboxRecord record) {
+        PendingWrite write = new PendingWrite(Target.SEGMENT, toLine(record), 0, new CompletableFuture<>());
+        writes.add(write);
+        return write.done();
+    }
+    
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatch);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(writes.take());
+                writes.drainTo(batch, maxBatch - 1);
+                running = !batch.remove(SHUTDOWN);
+                
+                // Dead letters first, so a DEAD marker is never on disk without its copy
+                appendDeadLetters(batch);
+                for (PendingWrite write : batch) {
+                    if (write.target() == Target.SEGMENT) {
+                        writeFully(segment, write.bytes());
+                    }
+                }
+                segment.force(false);
+                for (PendingWrite write : batch) {
+                    if (write.target() == Target.DEAD_LETTERS_TRIM) {
+                        trimDeadLetters(write.trimBytes());
+                    }
+                }
+                batch.forEach(write -> write.done().complete(null));
+                
+                if (dueForCompaction()) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        // Nothing lost; try again once the segment has doubled
+                        log.warn("⚠️ Outbox compaction failed: {}", e.getMessage());
+                        compactedBytes = segment.size();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (IOException e) {
+                log.error("✗ Outbox write failed: {}", e.getMessage());
+                batch.forEach(write -> write.done().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void appendDeadLetters(List<PendingWrite> batch) throws IOException {
+        FileChannel channel = null;
+        synchronized (deadLetterLock) {
+            try {
+                for (PendingWrite write : batch) {
+                    if (write.target() == Target.DEAD_LETTERS) {
+                        if (channel == null) {
+                            channel = FileChannel.open(deadLetterFile, CREATE, WRITE, APPEND);
+                        }
+                        writeFully(channel, write.bytes());
+                    }
+                }
+                if (channel != null) {
+                    channel.force(false);
+                }
+            } finally {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Drop the first {@code bytes} of the dead-letter file (the records a
+     * replay has re-enqueued), keeping whatever was appended after them.
+     */
+    private void trimDeadLetters(long bytes) throws IOException {
+        synchronized (deadLetterLock) {
+            if (!Files.exists(deadLetterFile)) {
+                return;
+            }
+            Path tmp = deadLetterFile.resolveSibling(deadLetterFile.getFileName() + ".tmp");
+            try (FileChannel source = FileChannel.open(deadLetterFile, READ);
+                 FileChannel target = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                long position = Math.min(bytes, source.size());
+                while (position < source.size()) {
+                    position += source.transferTo(position, source.size() - position, target);
+                }
+                target.force(true);
+            }
+            Files.move(tmp, deadLetterFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    private static long sizeOf(Path file) {
+        try {
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Replay the segment file: anything ENQUEUED without a matching
+     * DELIVERED or DEAD is still owed to a subscriber, with the attempt
+     * count from its last ATTEMPTED record.
+     */
+    private void recover() throws IOException {
+        long maxId = 0;
+        for (OutboxRecord record : readRecords(segmentFile)) {
+            maxId = Math.max(maxId, record.entry().id());
+            if (ENQUEUED.equals(record.op())) {
+                pending.put(record.entry().id(), record.entry());
+            } else if (ATTEMPTED.equals(record.op())) {
+                pending.replace(record.entry().id(), record.entry());
+            } else {
+                pending.remove(record.entry().id());
+            }
+        }
+        nextId.set(maxId + 1);
+        Files.move(writeCompactedSegment(), segmentFile,
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        
+        if (!pending.isEmpty()) {
+            log.warn("📬 Recovered {} undelivered events from the outbox", pending.size());
+        }
+    }
+    
+    /**
+     * Past the size limit, and at least half of it is records that are no
+     * longer needed. Without the second check, a backlog of pending entries
+     * bigger than the limit would be rewritten (and fsynced) after every
+     * batch.
+     */
+    private boolean dueForCompaction() throws IOException {
+        long size = segment.size();
+        return size > segmentMaxBytes && size > compactedBytes * 2;
+    }
+    
+    /**
+     * Roll the segment: rewrite it with only the entries still pending.
+     * Runs on the writer thread, so nothing else is appending meanwhile.
+     * 
+     * The old segment stays open until the new one is safely in place, so
+     * a failed rewrite (a full disk) leaves the outbox writing where it was.
+     */
+    private void compact() throws IOException {
+        Path tmp = writeCompactedSegment();
+        FileChannel compacted = FileChannel.open(tmp, WRITE, APPEND);
+        try {
+            Files.move(tmp, segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.close();
+            throw e;
+        }
+        FileChannel old = segment;
+        segment = compacted;
+        old.close();
+        log.debug("Outbox segment compacted, {} entries still pending", pending.size());
+    }
+    
+    /**
+     * @return the temporary file holding just the pending entries, fsynced
+     */
+    private Path writeCompactedSegment() throws IOException {
+        Path tmp = segmentFile.resolveSibling(segmentFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            for (OutboxEntry entry : pendingEntries()) {
+                channel.write(ByteBuffer.wrap(toLine(new OutboxRecord(ENQUEUED, entry, null))));
+            }
+            channel.force(true);
+            compactedBytes = channel.size();
+        }
+        return tmp;
+    }
+    
+    private List<OutboxRecord> readRecords(Path file) {
+        List<OutboxRecord> records = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return records;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    records.add(objectMapper.readValue(line, OutboxRecord.class));
+                } catch (IOException e) {
+                    // A torn write from a crash mid-append; everything before it is good
+                    log.warn("Skipping unreadable outbox record in {}", file.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return records;
+    }
+    
+    private byte[] toLine(OutboxRecord record) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(record);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        writes.add(SHUTDOWN);
+        writer.join(5000);
+        segment.close();
+    }
+    
+    /**
+     * One delivery owed to one subscriber.
+     */
+    public record OutboxEntry(long id, String subscriberUrl, BarnEvent event, int attempts) {
+        public OutboxEntry nextAttempt() {
+            return new OutboxEntry(id, subscriberUrl, event, attempts + 1);
+        }
+    }
+    
+    /**
+     * One line in a segment or dead-letter file.
+     */
+    public record OutboxRecord(String op, OutboxEntry entry, String lastError) {}
+    
+    private enum Target { SEGMENT, DEAD_LETTERS, DEAD_LETTERS_TRIM }
+    
+    /**
+     * @param trimBytes for a trim, how much of the dead-letter file to drop
+     */
+    private record PendingWrite(Target target, byte[] bytes, long trimBytes, CompletableFuture<Void> done) {}
+}
@@ -2,10 +2,18 @@ package com.codingbarn.barn;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * REST controller for a barn that can catch fire.
@@ -13,25 +21,103 @@ import java.util.concurrent.atomic.AtomicReference;
  * This is the "polling" version - the barn just sits here and answers
  * questions about its status. It never volunteers information.
  * If you want to know if it's on fire, you have to ask.
+ * 
+ * ...or you can ask and wait. A long poll (a "hanging GET") stays open
+ * until the status changes, so the answer arrives almost as soon as the
+ * fire starts - without the barn knowing who you are.
  */
 @RestController
 @RequestMapping("/barn")
+// The journal fills the store on startup; read our starting status after that
+@DependsOn("statusJournal")
 public class BarnController {
     
     private static final Logger log = LoggerFactory.getLogger(BarnController.class);
     
-    private final AtomicReference<BarnStatus> status = 
-        new AtomicReference<>(BarnStatus.ok());
+    static final String VERSION_HEADER = "X-Status-Version";
+    
+    private final VersionedStatus status;
+    private final BarnStore store;
+    private final String barnId;
+    private final Duration maxWait;
+    
+    public BarnController(
+            BarnStore store,
+            @Value("${barn.id:main-barn}") String barnId,
+            @Value("${long-poll.max-timeout:120s}") Duration maxWait) {
+        this.store = store;
+        this.barnId = barnId;
+        this.maxWait = maxWait;
+        // This barn lives in the store like every other; keep its ETag and long polls in step
+        store.register(barnId);
+        this.status = new VersionedStatus(store.get(barnId));
+        store.addListener((id, changed) -> {
+            if (id.equals(barnId)) {
+                status.set(changed);
+            }
+        });
+    }
     
     /**
      * Get the current status of the barn.
      * This is what polling clients call repeatedly.
+     * 
+     * Send back the ETag from the last answer in If-None-Match and, if
+     * nothing has changed, you get an empty 304 - no JSON is written at all.
      */
     @GetMapping("/status")
-    public BarnStatus getStatus() {
-        BarnStatus current = status.get();
-        log.debug("Status check: {}", current.status());
-        return current;
+    public ResponseEntity<BarnStatus> getStatus(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        VersionedStatus.Snapshot current = status.get();
+        if (current.matches(ifNoneMatch)) {
+            log.debug("Status check: not modified");
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(current.etag())
+                .header(VERSION_HEADER, Long.toString(current.version()))
+                .build();
+        }
+        log.debug("Status check: {}", current.status().status());
+        return toResponse(current);
+    }
+    
+    /**
+     * Long poll: wait until the status is no longer at version
+     * {@code waitForChangeFrom} (from the X-Status-Version header of the
+     * last answer), or until the timeout passes, then answer with the
+     * current status.
+     * 
+     * The request doesn't hold a thread while it waits - it's parked as a
+     * DeferredResult and completed by whoever changes the status.
+     * 
+     * The timeout is kept between 1ms and long-poll.max-timeout; zero or
+     * negative would mean "no timeout" to the DeferredResult.
+     */
+    @GetMapping(value = "/status", params = "waitForChangeFrom")
+    public DeferredResult<ResponseEntity<BarnStatus>> waitForChange(
+            @RequestParam long waitForChangeFrom,
+            @RequestParam(defaultValue = "30s") String timeout) {
+        Duration wait;
+        try {
+            wait = DurationStyle.detectAndParse(timeout);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bad timeout: " + timeout);
+        }
+        long waitMillis = Math.max(1, Math.min(wait.toMillis(), maxWait.toMillis()));
+        
+        // Nothing changed before the timeout: answer with the same status again
+        DeferredResult<ResponseEntity<BarnStatus>> result =
+            new DeferredResult<>(waitMillis, () -> toResponse(status.get()));
+        Runnable cancel = status.awaitChange(waitForChangeFrom, changed -> result.setResult(toResponse(changed)));
+        result.onCompletion(cancel);
+        return result;
+    }
+    
+    /**
+     * How many long polls are currently waiting.
+     */
+    @GetMapping("/status/waiting")
+    public int getWaiting() {
+        return status.waiting();
     }
     
     /**
@@ -42,7 +128,7 @@ public class BarnController {
     @PostMapping("/ignite")
     public String startFire() {
         Instant fireTime = Instant.now();
-        status.set(new BarnStatus("FIRE", fireTime));
+        store.ignite(barnId, fireTime);
         log.warn("🔥 Fire started at {}", fireTime);
         log.warn("The barn is burning silently. No one has been notified.");
         return "Fire started at " + fireTime;
@@ -53,8 +139,15 @@ public class BarnController {
      */
     @PostMapping("/extinguish")
     public String extinguish() {
-        status.set(BarnStatus.ok());
+        store.extinguish(barnId);
         log.info("✓ Fire extinguished");
         return "Fire extinguished";
     }
+    
+    private static ResponseEntity<BarnStatus> toResponse(VersionedStatus.Snapshot snapshot) {
+        return ResponseEntity.ok()
+            .eTag(snapshot.etag())
+            .header(VERSION_HEADER, Long.toString(snapshot.version()))
+            .body(snapshot.status());
+    }
 }
@@ -0,0 +1,308 @@
+package com.codingbarn.barn;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * The status of every barn in the county, packed tight.
+ * 
+ * One {@link BarnStatus} and one {@link Instant} per barn is fine for one
+ * barn. For a hundred thousand, it's two objects, two headers and a pile
+ * of pointers each. Here every barn is just a slot number:
+ * <ul>
+ *   <li>its whole state is one long - the status code in the low byte,
+ *       the fire's start time in epoch millis above it - so a read is a
+ *       single atomic load and can never see half an update</li>
+ *   <li>status codes are looked up in a tiny table, so "FIRE" is the same
+ *       String every time</li>
+ *   <li>a bitmap, one bit per barn, says which ones are burning, so
+ *       "which barns are on fire?" is a memcpy, not a scan</li>
+ * </ul>
+ * 
+ * Reads never lock. Changes to a barn take one of a few striped locks, so
+ * listeners (the main barn's ETag, the journal) see each barn's changes
+ * in order - starting with its registration, which they hear about as an
+ * OK.
+ * 
+ * Anyone can register a barn just by naming it, so ids are kept to
+ * {@link #VALID_ID} and a full store says so with a 507 rather than a
+ * stack trace.
+ */
+@Component
+public class BarnStore {
+    
+    static final String OK = "OK";
+    static final String FIRE = "FIRE";
+    
+    private static final String[] STATUS_CODES = {OK, FIRE};
+    private static final byte OK_CODE = 0;
+    private static final byte FIRE_CODE = 1;
+    private static final int STRIPES = 64;
+    
+    /** Letters, digits, '.', '_', ':' and '-', at most 64 of them. */
+    static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._:-]{1,64}");
+    
+    private final int capacity;
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> ids;
+    private final AtomicLongArray states;
+    private final AtomicLongArray fireBits;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicInteger burning = new AtomicInteger(0);
+    private final Object[] locks = new Object[STRIPES];
+    private final List<StatusListener> listeners = new CopyOnWriteArrayList<>();
+    
+    public BarnStore(@Value("${barns.capacity:100000}") int capacity) {
+        this.capacity = capacity;
+        this.ids = new AtomicReferenceArray<>(capacity);
+        this.states = new AtomicLongArray(capacity);
+        this.fireBits = new AtomicLongArray((capacity + 63) / 64);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * Be told about every status change, in order per barn.
+     */
+    public void addListener(StatusListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * @return the barn's status, or null if we've never heard of it
+     */
+    public BarnStatus get(String barnId) {
+        Integer slot = slots.get(barnId);
+        return slot == null ? null : decode(states.get(slot));
+    }
+    
+    /**
+     * Statuses for many barns in one go, in the order asked for.
+     * Unknown barns (and nulls) are left out.
+     */
+    public Map<String, BarnStatus> getAll(List<String> barnIds) {
+        Map<String, BarnStatus> result = new LinkedHashMap<>(barnIds.size() * 2);
+        for (String barnId : barnIds) {
+            BarnStatus status = barnId != null ? get(barnId) : null;
+            if (status != null) {
+                result.put(barnId, status);
+            }
+        }
+        return result;
+    }
+    
+    public BarnStatus ignite(String barnId, Instant when) {
+        return update(barnId, FIRE_CODE, when.toEpochMilli());
+    }
+    
+    public BarnStatus extinguish(String barnId) {
+        return update(barnId, OK_CODE, 0);
+    }
+    
+    /**
+     * Make sure a barn exists (as OK) without changing it if it does.
+     * 
+     * @throws IllegalArgumentException if the id isn't a {@link #VALID_ID}
+     * @throws StoreFullException if there's no room for another barn
+     */
+    public void register(String barnId) {
+        slotFor(barnId);
+    }
+    
+    /**
+     * One bit per barn, in slot order (see {@link #ids()}); bit {@code i}
+     * is {@code bytes[i / 8] & (1 << (i % 8))}.
+     */
+    public byte[] fireBitmap() {
+        int barns = size.get();
+        byte[] bitmap = new byte[(barns + 7) / 8];
+        for (int word = 0; word * 64 < barns; word++) {
+            long bits = fireBits.get(word);
+            for (int b = 0; b < 8 && word * 8 + b < bitmap.length; b++) {
+                bitmap[word * 8 + b] = (byte) (bits >>> (b * 8));
+            }
+        }
+        return bitmap;
+    }
+    
+    /**
+     * Barn ids in slot order - the key to {@link #fireBitmap()}. Slots
+     * never move, so clients can cache this and only fetch what's new.
+     * 
+     * @param from first slot to return
+     */
+    public List<String> ids(int from) {
+        int barns = size.get();
+        List<String> result = new ArrayList<>(Math.max(0, barns - from));
+        for (int slot = Math.max(0, from); slot < barns; slot++) {
+            result.add(ids.get(slot));
+        }
+        return result;
+    }
+    
+    public List<String> burningIds() {
+        List<String> result = new ArrayList<>(burning.get());
+        int barns = size.get();
+        for (int word = 0; word * 64 < barns; word++) {
+            long bits = fireBits.get(word);
+            while (bits != 0) {
+                int slot = word * 64 + Long.numberOfTrailingZeros(bits);
+                result.add(ids.get(slot));
+                bits &= bits - 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Visit every barn and its current status, in slot order.
+     */
+    public void forEach(StatusListener visitor) {
+        int barns = size.get();
+        for (int slot = 0; slot < barns; slot++) {
+            visitor.onChange(ids.get(slot), decode(states.get(slot)));
+        }
+    }
+    
+    public int size() {
+        return size.get();
+    }
+    
+    public int burningCount() {
+        return burning.get();
+    }
+    
+    private BarnStatus update(String barnId, byte code, long sinceMillis) {
+        int slot = slotFor(barnId);
+        BarnStatus status;
+        synchronized (locks[slot % STRIPES]) {
+            long previous = states.get(slot);
+            long next = (sinceMillis << 8) | code;
+            states.set(slot, next);
+            
+            boolean wasBurning = (byte) previous == FIRE_CODE;
+            boolean isBurning = code == FIRE_CODE;
+            if (wasBurning != isBurning) {
+                long mask = 1L << (slot % 64);
+                if (isBurning) {
+                    fireBits.getAndAccumulate(slot / 64, mask, (bits, m) -> bits | m);
+                    burning.incrementAndGet();
+                } else {
+                    fireBits.getAndAccumulate(slot / 64, mask, (bits, m) -> bits & ~m);
+                    burning.decrementAndGet();
+                }
+            }
+            
+            status = decode(next);
+            if (previous != next) {
+                for (StatusListener listener : listeners) {
+                    listener.onChange(barnId, status);
+                }
+            }
+        }
+        return status;
+    }
+    
+    private int slotFor(String barnId) {
+        Integer slot = slots.get(barnId);
+        return slot != null ? slot : addBarn(barnId);
+    }
+    
+    /**
+     * New barns are rare, so handing out slots one at a time is fine.
+     */
+    private synchronized int addBarn(String barnId) {
+        Integer existing = slots.get(barnId);
+        if (existing != null) {
+            return existing;
+        }
+        if (!isValidId(barnId)) {
+            throw new IllegalArgumentException("Bad barn id: " + barnId);
+        }
+        int slot = size.get();
+        if (slot >= capacity) {
+            throw new StoreFullException(capacity);
+        }
+        // Hold the barn's lock until listeners have heard of it, so nobody
+        // can hear about a change to it first
+        synchronized (locks[slot % STRIPES]) {
+            ids.set(slot, barnId);
+            slots.put(barnId, slot);
+            // Publish the size last, so readers never see a slot without an id
+            size.set(slot + 1);
+            BarnStatus status = decode(0);
+            for (StatusListener listener : listeners) {
+                listener.onRegister(barnId, slot, status);
+            }
+        }
+        return slot;
+    }
+    
+    /**
+     * Put a barn back in the slot it had before a restart, so
+     * {@link #ids(int)} and the fire bitmap mean the same as they did.
+     * Only for the journal, while it fills the store on startup; ids
+     * aren't checked, they were when the barn was first registered.
+     * 
+     * @return false if that slot can't be had (it's taken by another barn,
+     *         or slots before it are missing) - the barn isn't added
+     */
+    synchronized boolean restore(String barnId, int slot) {
+        Integer existing = slots.get(barnId);
+        if (existing != null) {
+            return existing == slot;
+        }
+        if (slot != size.get() || slot >= capacity) {
+            return false;
+        }
+        ids.set(slot, barnId);
+        slots.put(barnId, slot);
+        size.set(slot + 1);
+        return true;
+    }
+    
+    public int capacity() {
+        return capacity;
+    }
+    
+    static boolean isValidId(String barnId) {
+        return barnId != null && VALID_ID.matcher(barnId).matches();
+    }
+    
+    private static BarnStatus decode(long state) {
+        String status = STATUS_CODES[(int) (state & 0xFF)];
+        long sinceMillis = state >>> 8;
+        return new BarnStatus(status, sinceMillis == 0 ? null : Instant.ofEpochMilli(sinceMillis));
+    }
+    
+    /**
+     * Called with every status change, while the barn's lock is held -
+     * keep it quick.
+     */
+    @FunctionalInterface
+    public interface StatusListener {
+        void onChange(String barnId, BarnStatus status);
+        
+        /**
+         * A new barn, in the slot it will keep for good. Slots are handed
+         * out in order, so these arrive in slot order too. Most listeners
+         * only care that there's a new barn, and it's OK.
+         */
+        default void onRegister(String barnId, int slot, BarnStatus status) {
+            onChange(barnId, status);
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package com.codingbarn.barn;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A rate-limited barn that simulates fragile legacy systems.
@@ -18,6 +21,17 @@ import java.util.concurrent.atomic.AtomicReference;
  * 
  * Maximum 6 requests per minute = you can poll every 10 seconds safely.
  * Poll faster than that and you'll start getting 503 errors.
+ * 
+ * Each client (X-Client-Id header, or its address) gets its own
+ * allowance, so one over-eager poller doesn't lock everyone else out.
+ * The header is only a name the caller picked, though, so it can't be
+ * trusted on its own: a client is really "this id from this address",
+ * and every address also has an overall allowance of
+ * {@code clients-per-address} clients' worth. Making up a new id for
+ * every request buys a few more requests, not an unlimited supply.
+ * 
+ * Every answer says how much allowance is left in RateLimit-* headers,
+ * and a 503 says when to come back in Retry-After.
  */
 @RestController
 @RequestMapping("/fragile-barn")
@@ -25,49 +39,87 @@ public class FragileBarnController {
     
     private static final Logger log = LoggerFactory.getLogger(FragileBarnController.class);
     
-    private final AtomicReference<BarnStatus> status = 
-        new AtomicReference<>(BarnStatus.ok());
+    private final VersionedStatus status = new VersionedStatus(BarnStatus.ok());
     
-    private final AtomicInteger requestCount = new AtomicInteger(0);
-    private volatile Instant windowStart = Instant.now();
+    static final String CLIENT_ID_HEADER = "X-Client-Id";
     
-    // Maximum 6 requests per minute
+    // 6 requests per minute by default
     // This simulates a legacy system that can't handle frequent polling
-    private static final int MAX_REQUESTS_PER_MINUTE = 6;
+    private final RateLimiter rateLimiter;
+    private final RateLimiter addressLimiter;
+    private final int maxRequests;
+    private final Duration period;
+    private final AtomicLong rejected = new AtomicLong(0);
+    
+    public FragileBarnController(
+            @Value("${fragile-barn.rate-limit.requests:6}") int maxRequests,
+            @Value("${fragile-barn.rate-limit.period:60s}") Duration period,
+            @Value("${fragile-barn.rate-limit.burst:6}") int burst,
+            @Value("${fragile-barn.rate-limit.clients-per-address:4}") int clientsPerAddress) {
+        if (clientsPerAddress < 1) {
+            throw new IllegalArgumentException(
+                "fragile-barn.rate-limit.clients-per-address must be at least 1, got " + clientsPerAddress);
+        }
+        // Both throw if maxRequests or period can't make a rate
+        this.rateLimiter = new RateLimiter(maxRequests, period, burst);
+        this.addressLimiter = new RateLimiter(maxRequests * clientsPerAddress, period, burst * clientsPerAddress);
+        this.maxRequests = maxRequests;
+        this.period = period;
+    }
     
     /**
      * Get the current status - but don't ask too often!
      * 
      * This endpoint will start failing if you poll more than 6 times per minute.
      * Just like that old mainframe that starts throwing errors if you hit it too hard.
+     * 
+     * Supports If-None-Match like the regular barn. A 304 is cheap, but it
+     * still counts as a request - the mainframe still had to answer.
      */
     @GetMapping("/status")
-    public BarnStatus getStatus() {
-        Instant now = Instant.now();
-        
-        // Reset the rate limit window every minute
-        if (now.isAfter(windowStart.plusSeconds(60))) {
-            windowStart = now;
-            requestCount.set(0);
-            log.debug("Rate limit window reset");
+    public ResponseEntity<BarnStatus> getStatus(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest request) {
+        String clientId = clientId(request);
+        String address = request.getRemoteAddr();
+        // Check the address first without using any of it, so a client
+        // that's already over its own limit doesn't eat its neighbours' share
+        RateLimiter.Decision decision = addressLimiter.peek(address);
+        if (decision.allowed()) {
+            decision = rateLimiter.tryAcquire(bucketKey(address, clientId));
+            if (decision.allowed()) {
+                RateLimiter.Decision overall = addressLimiter.tryAcquire(address);
+                if (!overall.allowed()) {
+                    decision = overall;
+                }
+            }
         }
         
-        int count = requestCount.incrementAndGet();
-        
-        if (count > MAX_REQUESTS_PER_MINUTE) {
-            log.error("⚠️ SYSTEM OVERLOAD! Request {} exceeds limit of {}/minute", 
-                count, MAX_REQUESTS_PER_MINUTE);
+        if (!decision.allowed()) {
+            rejected.incrementAndGet();
+            log.error("⚠️ SYSTEM OVERLOAD! {} exceeded the limit of {} per {}",
+                clientId, maxRequests, period);
             log.error("This is what happens when you poll a fragile system too aggressively.");
             
-            throw new ResponseStatusException(
-                HttpStatus.SERVICE_UNAVAILABLE,
+            throw new RateLimitExceededException(decision,
                 "System overloaded. Too many status checks are destabilizing the barn. " +
-                "Please reduce polling frequency to no more than once every 10 seconds."
+                "Please reduce polling frequency to no more than once every " +
+                period.dividedBy(maxRequests).toSeconds() + " seconds."
             );
         }
         
-        log.debug("Status check {}/{} this minute", count, MAX_REQUESTS_PER_MINUTE);
-        return status.get();
+        log.debug("Status check from {}, {} left", clientId, decision.remaining());
+        VersionedStatus.Snapshot current = status.get();
+        if (current.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .headers(decision.headers())
+                .eTag(current.etag())
+                .build();
+        }
+        return ResponseEntity.ok()
+            .headers(decision.headers())
+            .eTag(current.etag())
+            .body(current.status());
     }
     
     /**
@@ -92,20 +144,45 @@ public class FragileBarnController {
     }
     
     /**
-     * Check the current rate limit status.
+     * Check the calling client's rate limit status (doesn't use any of it).
      */
     @GetMapping("/rate-limit")
-    public RateLimitStatus getRateLimitStatus() {
-        Instant now = Instant.now();
-        long secondsRemaining = 60 - java.time.Duration.between(windowStart, now).toSeconds();
-        if (secondsRemaining < 0) secondsRemaining = 60;
-        
+    public RateLimitStatus getRateLimitStatus(HttpServletRequest request) {
+        String clientId = clientId(request);
+        RateLimiter.Decision decision = rateLimiter.peek(bucketKey(request.getRemoteAddr(), clientId));
         return new RateLimitStatus(
-            requestCount.get(),
-            MAX_REQUESTS_PER_MINUTE,
-            secondsRemaining
+            clientId,
+            maxRequests,
+            period.toSeconds(),
+            decision.remaining(),
+            decision.resetSeconds(),
+            rateLimiter.trackedClients(),
+            rejected.get()
         );
     }
     
-    public record RateLimitStatus(int requestsThisMinute, int maxPerMinute, long secondsUntilReset) {}
+    private static String clientId(HttpServletRequest request) {
+        String clientId = request.getHeader(CLIENT_ID_HEADER);
+        return clientId != null && !clientId.isBlank() ? clientId : request.getRemoteAddr();
+    }
+    
+    private static String bucketKey(String address, String clientId) {
+        return address.equals(clientId) ? address : address + " " + clientId;
+    }
+    
+    /**
+     * @param remaining requests this client can make right now
+     * @param secondsUntilReset until this client's allowance is full again
+     * @param trackedClients clients that have used some of their allowance
+     * @param rejected requests turned away, across all clients
+     */
+    public record RateLimitStatus(
+        String clientId,
+        int maxRequests,
+        long periodSeconds,
+        int remaining,
+        long secondsUntilReset,
+        int trackedClients,
+        long rejected
+    ) {}
 }
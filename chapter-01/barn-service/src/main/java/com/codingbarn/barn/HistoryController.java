@@ -0,0 +1,62 @@
+package com.codingbarn.barn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+
+/**
+ * What happened, and when. See {@link StatusJournal}.
+ * 
+ *   curl "http://localhost:8080/barn/history?barnId=barn-7"
+ * 
+ * One JSON object per line, oldest first. The answer is streamed as the
+ * journal is read, so asking for a week of history doesn't need a week
+ * of history in memory.
+ */
+@RestController
+@RequestMapping("/barn")
+public class HistoryController {
+    
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
+    private final StatusJournal journal;
+    private final ObjectMapper objectMapper;
+    
+    public HistoryController(StatusJournal journal, ObjectMapper objectMapper) {
+        this.journal = journal;
+        this.objectMapper = objectMapper;
+    }
+    
+    /**
+     * Status changes with {@code from <= time < to}. Times are epoch
+     * millis; the default is the last hour.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<StreamingResponseBody> history(
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false) String barnId) {
+        long toMillis = to != null ? to : System.currentTimeMillis() + 1;
+        long fromMillis = from != null ? from : toMillis - 3_600_000;
+        
+        StreamingResponseBody body = out -> {
+            OutputStream buffered = new BufferedOutputStream(out, 16384);
+            journal.read(fromMillis, toMillis, barnId, change -> {
+                buffered.write(objectMapper.writeValueAsBytes(change));
+                buffered.write('\n');
+            });
+            buffered.flush();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+    
+    @GetMapping("/history/stats")
+    public StatusJournal.JournalStats getStats() {
+        return journal.getStats();
+    }
+}
@@ -0,0 +1,114 @@
+package com.codingbarn.barn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every barn in the county, not just the one.
+ * 
+ * Checking a thousand barns one GET at a time is a thousand round trips.
+ * Ask for them all in one batch instead - or, if all you want to know is
+ * "is anything on fire?", fetch the fire bitmap: one bit per barn, so
+ * 100,000 barns fit in 12.5 KB.
+ * 
+ * Igniting or extinguishing a barn we've never heard of registers it, as
+ * long as its id is a sensible one (see {@link BarnStore#VALID_ID}).
+ */
+@RestController
+@RequestMapping("/barn")
+public class MultiBarnController {
+    
+    private static final Logger log = LoggerFactory.getLogger(MultiBarnController.class);
+    
+    private static final int MAX_BATCH = 10_000;
+    
+    private final BarnStore store;
+    
+    public MultiBarnController(BarnStore store) {
+        this.store = store;
+    }
+    
+    @GetMapping("/{barnId}/status")
+    public BarnStatus getStatus(@PathVariable String barnId) {
+        BarnStatus status = store.get(barnId);
+        if (status == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No such barn: " + barnId);
+        }
+        return status;
+    }
+    
+    /**
+     * Statuses for a list of barns, e.g. {@code ["barn-1", "barn-2"]}.
+     * Barns we've never heard of are left out of the answer.
+     */
+    @PostMapping("/status/batch")
+    public Map<String, BarnStatus> getStatuses(@RequestBody List<String> barnIds) {
+        if (barnIds.size() > MAX_BATCH) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                "At most " + MAX_BATCH + " barns per batch");
+        }
+        return store.getAll(barnIds);
+    }
+    
+    @PostMapping("/{barnId}/ignite")
+    public String startFire(@PathVariable String barnId) {
+        requireValidId(barnId);
+        Instant fireTime = Instant.now();
+        store.ignite(barnId, fireTime);
+        log.warn("🔥 Fire started in {} at {}", barnId, fireTime);
+        return "Fire started in " + barnId + " at " + fireTime;
+    }
+    
+    @PostMapping("/{barnId}/extinguish")
+    public String extinguish(@PathVariable String barnId) {
+        requireValidId(barnId);
+        store.extinguish(barnId);
+        log.info("✓ Fire extinguished in {}", barnId);
+        return "Fire extinguished in " + barnId;
+    }
+    
+    /**
+     * Which barns are burning, one bit per barn in the order of
+     * {@code /barn/index}. Bit i is {@code bytes[i / 8] & (1 << (i % 8))}.
+     */
+    @GetMapping(value = "/fire-bitmap", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<byte[]> getFireBitmap() {
+        return ResponseEntity.ok()
+            .header("X-Barn-Count", Integer.toString(store.size()))
+            .header("X-Burning-Count", Integer.toString(store.burningCount()))
+            .body(store.fireBitmap());
+    }
+    
+    /**
+     * Barn ids in bitmap order. Positions never change, so fetch it once
+     * and then only ask for what's new with {@code from}.
+     */
+    @GetMapping("/index")
+    public List<String> getIndex(@RequestParam(defaultValue = "0") int from) {
+        return store.ids(from);
+    }
+    
+    /**
+     * The burning barns by name - handy when there are only a few.
+     */
+    @GetMapping("/burning")
+    public List<String> getBurning() {
+        return store.burningIds();
+    }
+    
+    private static void requireValidId(String barnId) {
+        if (!BarnStore.isValidId(barnId)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Barn ids are 1-64 letters, digits, '.', '_', ':' or '-'; got: " + barnId);
+        }
+    }
+}
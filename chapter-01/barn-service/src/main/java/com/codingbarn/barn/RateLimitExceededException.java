@@ -0,0 +1,26 @@
+package com.codingbarn.barn;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * A 503 that tells the client when to come back, and how big its
+ * allowance is, in Retry-After and RateLimit-* headers.
+ */
+public class RateLimitExceededException extends ResponseStatusException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final HttpHeaders headers;
+    
+    public RateLimitExceededException(RateLimiter.Decision decision, String reason) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, reason);
+        this.headers = decision.headers();
+    }
+    
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+}
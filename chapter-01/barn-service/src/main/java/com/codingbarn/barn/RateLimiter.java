@@ -0,0 +1,147 @@
+package com.codingbarn.barn;
+
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per-client token bucket, implemented as GCRA (the "generic cell rate
+ * algorithm").
+ * 
+ * Instead of a token count and a refill timer, each client has a single
+ * number: the theoretical arrival time (TAT) of its next request if it
+ * sent them perfectly evenly. Every allowed request pushes the TAT one
+ * interval further out; a request is rejected if the TAT is more than a
+ * burst's worth of intervals in the future.
+ * 
+ * One number means one AtomicLong per client and one compare-and-set per
+ * request - no locks, no window to reset, and no race where a reset lets
+ * a crowd of requests through. Different clients never touch the same
+ * counter, so they don't contend with each other at all.
+ */
+public class RateLimiter {
+    
+    private static final int SWEEP_ONE_IN = 4096;
+    
+    private final int limit;
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    
+    /**
+     * @param limit requests allowed per period
+     * @param period the period, e.g. one minute
+     * @param burst how many requests may arrive back to back (at most {@code limit})
+     */
+    public RateLimiter(int limit, Duration period, int burst) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Rate limit must allow at least 1 request per period, got " + limit);
+        }
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Rate limit period must be positive, got " + period);
+        }
+        this.limit = limit;
+        this.intervalNanos = period.toNanos() / limit;
+        this.burstToleranceNanos = intervalNanos * (Math.max(1, Math.min(burst, limit)) - 1);
+    }
+    
+    /**
+     * Take one request's worth of capacity from this client's bucket, if
+     * there is any.
+     */
+    public Decision tryAcquire(String clientId) {
+        if (ThreadLocalRandom.current().nextInt(SWEEP_ONE_IN) == 0) {
+            sweep();
+        }
+        AtomicLong bucket = buckets.get(clientId);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(clientId, id -> new AtomicLong(Long.MIN_VALUE));
+        }
+        
+        while (true) {
+            long now = System.nanoTime();
+            long stored = bucket.get();
+            long tat = stored == Long.MIN_VALUE ? now : Math.max(stored, now);
+            
+            long allowedAt = tat - burstToleranceNanos;
+            if (allowedAt > now) {
+                return new Decision(false, limit, 0, tat - now, allowedAt - now);
+            }
+            long newTat = tat + intervalNanos;
+            if (bucket.compareAndSet(stored, newTat)) {
+                return new Decision(true, limit, remaining(newTat, now), newTat - now, 0);
+            }
+            // Another request from the same client got there first; try again
+        }
+    }
+    
+    /**
+     * The state of a client's bucket, without using any of it.
+     */
+    public Decision peek(String clientId) {
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.get(clientId);
+        long tat = bucket == null || bucket.get() == Long.MIN_VALUE ? now : Math.max(bucket.get(), now);
+        long allowedAt = tat - burstToleranceNanos;
+        return new Decision(allowedAt <= now, limit, remaining(tat, now), tat - now, Math.max(0, allowedAt - now));
+    }
+    
+    public int trackedClients() {
+        return buckets.size();
+    }
+    
+    private int remaining(long tat, long now) {
+        return (int) Math.max(0, (now + burstToleranceNanos + intervalNanos - tat) / intervalNanos);
+    }
+    
+    /**
+     * Forget clients whose bucket has refilled completely - they look
+     * exactly like a client we've never seen. Runs now and then from a
+     * random request rather than on a timer, so there's nothing to manage.
+     * 
+     * A request racing with the sweep may update a bucket that has just
+     * been dropped; the worst that can happen is one extra request.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now < 0);
+    }
+    
+    /**
+     * @param remaining requests the client could make right now
+     * @param resetNanos until the bucket is full again
+     * @param retryAfterNanos until the next request would be allowed (0 if it is now)
+     */
+    public record Decision(boolean allowed, int limit, int remaining, long resetNanos, long retryAfterNanos) {
+        
+        /**
+         * RateLimit-Limit / -Remaining / -Reset, plus Retry-After when rejected.
+         */
+        public HttpHeaders headers() {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("RateLimit-Limit", Integer.toString(limit));
+            headers.set("RateLimit-Remaining", Integer.toString(remaining));
+            headers.set("RateLimit-Reset", Long.toString(resetSeconds()));
+            if (!allowed) {
+                headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds()));
+            }
+            return headers;
+        }
+        
+        public long resetSeconds() {
+            return ceilSeconds(resetNanos);
+        }
+        
+        public long retryAfterSeconds() {
+            return ceilSeconds(retryAfterNanos);
+        }
+        
+        private static long ceilSeconds(long nanos) {
+            return (nanos + 999_999_999) / 1_000_000_000;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.codingbarn.barn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One barn's recent sensor readings in a fixed-size ring buffer.
+ * 
+ * Each reading is 16 bytes - epoch millis, temperature, smoke - with no
+ * object per sample. The ring is made of chunks of {@value #CHUNK_READINGS}
+ * readings, each allocated the first time it's written to, so a barn that
+ * has sent a handful of readings costs 16 KB, not the whole ring. The
+ * chunks can live on the heap or off it (direct buffers), which keeps
+ * millions of readings out of the garbage collector's way.
+ * 
+ * Readings are kept in time order. One older than the newest we have
+ * (a sensor retrying, a clock stepping back) can't be filed without
+ * breaking that, so it's dropped and counted - though it can still set
+ * the barn on fire by crossing a threshold.
+ * 
+ * A reading stamped outside the window the caller trusts (a sensor whose
+ * clock is years off) is dropped before anything else looks at it.
+ * Filed, it would become the newest reading and make every real one
+ * after it late until the wall clock caught up.
+ * 
+ * The fire rules are checked as each reading arrives, without going back
+ * over old data: a threshold check, plus a rate-of-rise check against the
+ * oldest reading still inside the rise window, whose position only ever
+ * moves forward.
+ * 
+ * Appends and queries synchronize on the series. A batch of readings is
+ * appended under one lock acquisition, and different barns never share a
+ * lock.
+ */
+class SensorSeries {
+    
+    static final int RECORD_BYTES = 16;
+    static final int CHUNK_READINGS = 1024;
+    
+    private final ByteBuffer[] chunks;
+    private final int capacity;
+    private final boolean offHeap;
+    
+    // Sequence numbers of readings, counting from 0; slot = seq % capacity
+    private long head = 0;
+    private long riseTail = 0;
+    private long lastMillis = Long.MIN_VALUE;
+    private volatile boolean firing = false;
+    private volatile long lastAppendedAt = System.currentTimeMillis();
+    private volatile int allocatedBytes = 0;
+    
+    SensorSeries(int capacity, boolean offHeap) {
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.chunks = new ByteBuffer[(capacity + CHUNK_READINGS - 1) / CHUNK_READINGS];
+    }
+    
+    /**
+     * Append readings straight from an ingest buffer and check the rules
+     * after each one.
+     * 
+     * @param source positioned at the first reading; advanced past the last
+     * @param notBefore readings stamped earlier than this are dropped
+     * @param notAfter readings stamped later than this are dropped
+     */
+    synchronized Appended append(ByteBuffer source, int count, FireRules rules, long notBefore, long notAfter) {
+        long trippedAt = -1;
+        int late = 0;
+        int outOfRange = 0;
+        for (int i = 0; i < count; i++) {
+            long millis = source.getLong();
+            float temperature = source.getFloat();
+            float smoke = source.getFloat();
+            if (millis < notBefore || millis > notAfter) {
+                outOfRange++;
+                continue;
+            }
+            if (millis < lastMillis) {
+                late++;
+                if (!firing && trippedAt < 0 && breaksThreshold(temperature, smoke, rules)) {
+                    trippedAt = millis;
+                }
+                continue;
+            }
+            lastMillis = millis;
+            
+            ByteBuffer chunk = chunkFor(head);
+            int offset = offsetInChunk(head);
+            chunk.putLong(offset, millis);
+            chunk.putFloat(offset + 8, temperature);
+            chunk.putFloat(offset + 12, smoke);
+            head++;
+            
+            if (!firing && trippedAt < 0 && breaksRule(millis, temperature, smoke, rules)) {
+                trippedAt = millis;
+            }
+        }
+        if (trippedAt >= 0) {
+            firing = true;
+        }
+        lastAppendedAt = System.currentTimeMillis();
+        return new Appended(trippedAt, late, outOfRange);
+    }
+    
+    /**
+     * Called when the barn is put out, so the rules can trip again.
+     */
+    void reset() {
+        firing = false;
+    }
+    
+    long size() {
+        return Math.min(head, capacity);
+    }
+    
+    /**
+     * Wall-clock time readings last arrived, to tell idle barns apart.
+     */
+    long lastAppendedAt() {
+        return lastAppendedAt;
+    }
+    
+    int allocatedBytes() {
+        return allocatedBytes;
+    }
+    
+    /**
+     * Readings between {@code fromMillis} (inclusive) and {@code toMillis}
+     * (exclusive), summarized into buckets of {@code stepMillis}.
+     */
+    synchronized List<Bucket> downsample(long fromMillis, long toMillis, long stepMillis) {
+        List<Bucket> buckets = new ArrayList<>();
+        long oldest = Math.max(0, head - capacity);
+        long seq = firstAtOrAfter(oldest, fromMillis);
+        
+        Bucket.Builder current = null;
+        for (; seq < head; seq++) {
+            ByteBuffer chunk = chunks[chunkIndex(seq)];
+            int offset = offsetInChunk(seq);
+            long millis = chunk.getLong(offset);
+            if (millis >= toMillis) {
+                break;
+            }
+            long bucketStart = fromMillis + (millis - fromMillis) / stepMillis * stepMillis;
+            if (current == null || current.start != bucketStart) {
+                if (current != null) {
+                    buckets.add(current.build());
+                }
+                current = new Bucket.Builder(bucketStart);
+            }
+            current.add(chunk.getFloat(offset + 8), chunk.getFloat(offset + 12));
+        }
+        if (current != null) {
+            buckets.add(current.build());
+        }
+        return buckets;
+    }
+    
+    private boolean breaksRule(long millis, float temperature, float smoke, FireRules rules) {
+        if (breaksThreshold(temperature, smoke, rules)) {
+            return true;
+        }
+        // Slide the start of the rise window forward
+        long windowStart = millis - rules.riseWindowMillis();
+        while (riseTail < head - 1 && (riseTail < head - capacity || timeAt(riseTail) < windowStart)) {
+            riseTail++;
+        }
+        long span = millis - timeAt(riseTail);
+        // Don't judge a rise over too short a span - that's just noise
+        if (span * 2 < rules.riseWindowMillis()) {
+            return false;
+        }
+        float rise = temperature - chunks[chunkIndex(riseTail)].getFloat(offsetInChunk(riseTail) + 8);
+        return rise * 60_000f / span >= rules.maxRisePerMinute();
+    }
+    
+    private static boolean breaksThreshold(float temperature, float smoke, FireRules rules) {
+        return temperature >= rules.maxTemperature() || smoke >= rules.maxSmokePpm();
+    }
+    
+    /**
+     * Binary search for the first reading at or after {@code millis}.
+     */
+    private long firstAtOrAfter(long low, long millis) {
+        long high = head;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timeAt(mid) < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private long timeAt(long seq) {
+        return chunks[chunkIndex(seq)].getLong(offsetInChunk(seq));
+    }
+    
+    private ByteBuffer chunkFor(long seq) {
+        int index = chunkIndex(seq);
+        ByteBuffer chunk = chunks[index];
+        if (chunk == null) {
+            int bytes = Math.min(CHUNK_READINGS, capacity - index * CHUNK_READINGS) * RECORD_BYTES;
+            chunk = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+            chunks[index] = chunk;
+            allocatedBytes += bytes;
+        }
+        return chunk;
+    }
+    
+    private int chunkIndex(long seq) {
+        return (int) (seq % capacity) / CHUNK_READINGS;
+    }
+    
+    private int offsetInChunk(long seq) {
+        return (int) (seq % capacity) % CHUNK_READINGS * RECORD_BYTES;
+    }
+    
+    /**
+     * @param trippedAt the time of the reading that first broke a rule, or -1
+     * @param late readings dropped for being older than the newest one
+     * @param outOfRange readings dropped for a timestamp outside the trusted window
+     */
+    record Appended(long trippedAt, int late, int outOfRange) {}
+    
+    /**
+     * When a barn's readings should set it on fire.
+     * 
+     * @param maxRisePerMinute degrees per minute, measured over riseWindowMillis
+     */
+    record FireRules(float maxTemperature, float maxSmokePpm, float maxRisePerMinute, long riseWindowMillis) {}
+    
+    /**
+     * Readings summarized over one step of a range query.
+     */
+    public record Bucket(long start, int count, float minTemperature, float maxTemperature,
+                         float avgTemperature, float maxSmokePpm, float avgSmokePpm) {
+        
+        private static final class Builder {
+            private final long start;
+            private int count = 0;
+            private float minTemperature = Float.MAX_VALUE;
+            private float maxTemperature = -Float.MAX_VALUE;
+            private double sumTemperature = 0;
+            private float maxSmoke = -Float.MAX_VALUE;
+            private double sumSmoke = 0;
+            
+            private Builder(long start) {
+                this.start = start;
+            }
+            
+            private void add(float temperature, float smoke) {
+                count++;
+                minTemperature = Math.min(minTemperature, temperature);
+                maxTemperature = Math.max(maxTemperature, temperature);
+                sumTemperature += temperature;
+                maxSmoke = Math.max(maxSmoke, smoke);
+                sumSmoke += smoke;
+            }
+            
+            private Bucket build() {
+                return new Bucket(start, count, minTemperature, maxTemperature,
+                    (float) (sumTemperature / count), maxSmoke, (float) (sumSmoke / count));
+            }
+        }
+    }
+}
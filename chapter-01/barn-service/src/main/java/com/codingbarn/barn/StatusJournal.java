@@ -0,0 +1,529 @@
+package com.codingbarn.barn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Every status change of every barn, written down in order.
+ * 
+ * The store only knows how things are now. To answer "when did barn-7
+ * burn last week?" we need to remember how they were, so every change is
+ * appended to a journal: a series of fixed-size, memory-mapped segment
+ * files. Appending is a memory copy; the OS writes it out.
+ * 
+ * A record is {@code [int length][long atMillis][long sinceMillis][byte code][barn id]},
+ * with the length written last, so a crash mid-write leaves a zero that
+ * reading stops at. A new barn's first record is flagged as a
+ * registration and carries its slot in the store where the fire's start
+ * time would go (an OK barn has none).
+ * 
+ * Each segment has a sparse time index next to it: one (time, position)
+ * pair every few KB. A time-range query binary searches the index, jumps
+ * into the segment near the start time and reads forward from there -
+ * only the part of the file it needs, straight from the page cache.
+ * 
+ * Every new segment starts with a checkpoint: the status of every barn at
+ * that moment, in slot order, closed by an end record with the count. On
+ * startup the store is rebuilt from the last segment whose checkpoint was
+ * finished, then every registration and change after it - so barns come
+ * back in the same slots, and a crash halfway through a checkpoint just
+ * means starting from the one before. A segment has to be big enough for
+ * a checkpoint of a full store, or we refuse to start.
+ * 
+ * Readers don't take the journal's lock to search a segment's index: the
+ * index is published as an immutable snapshot each time it grows.
+ */
+@Component
+public class StatusJournal {
+    
+    private static final Logger log = LoggerFactory.getLogger(StatusJournal.class);
+    
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 1;
+    private static final int MAX_RECORD_BYTES = HEADER_BYTES + 64;
+    private static final int INDEX_EVERY_BYTES = 4096;
+    private static final byte CHECKPOINT_FLAG = (byte) 0x80;
+    private static final byte REGISTERED_FLAG = 0x40;
+    // A checkpoint record with no barn; sinceMillis is how many came before it
+    private static final byte CHECKPOINT_END = (byte) (CHECKPOINT_FLAG | 0x20);
+    private static final byte STATUS_MASK = 0x0F;
+    private static final byte[] NO_ID = new byte[0];
+    private static final String[] STATUS_CODES = {BarnStore.OK, BarnStore.FIRE};
+    
+    private final BarnStore store;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int retainSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    
+    private Segment active;
+    private long lastMillis = 0;
+    private boolean rolling = false;
+    
+    public StatusJournal(
+            BarnStore store,
+            @Value("${journal.dir:journal}") String dir,
+            @Value("${journal.segment-bytes:16777216}") int segmentBytes,
+            @Value("${journal.retain-segments:64}") int retainSegments) throws IOException {
+        this.store = store;
+        this.dir = Path.of(dir).toAbsolutePath();
+        this.segmentBytes = segmentBytes;
+        this.retainSegments = retainSegments;
+        long checkpointBytes = (long) store.capacity() * MAX_RECORD_BYTES + HEADER_BYTES;
+        if (checkpointBytes > segmentBytes - INDEX_EVERY_BYTES) {
+            throw new IllegalArgumentException("journal.segment-bytes=" + segmentBytes
+                + " can't hold a checkpoint of " + store.capacity() + " barns; make it at least "
+                + (checkpointBytes + INDEX_EVERY_BYTES));
+        }
+        Files.createDirectories(this.dir);
+        
+        openExistingSegments();
+        if (active == null || !rebuild()) {
+            roll();
+        }
+        store.addListener(new BarnStore.StatusListener() {
+            @Override
+            public void onChange(String barnId, BarnStatus status) {
+                append(barnId, status);
+            }
+            
+            @Override
+            public void onRegister(String barnId, int slot, BarnStatus status) {
+                register(barnId, slot);
+            }
+        });
+    }
+    
+    /**
+     * Changes with {@code from <= atMillis < to}, oldest first, optionally
+     * for one barn only. Reads a record at a time, so the whole journal can
+     * be streamed without holding more than one record on the heap.
+     */
+    public void read(long fromMillis, long toMillis, String barnId, RecordVisitor visitor) throws IOException {
+        List<Segment> candidates;
+        synchronized (this) {
+            candidates = new ArrayList<>(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                long nextStart = i + 1 < segments.size() ? segments.get(i + 1).firstMillis() : Long.MAX_VALUE;
+                if (segment.firstMillis() < toMillis && nextStart >= fromMillis) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        
+        byte[] wanted = barnId != null ? barnId.getBytes(StandardCharsets.UTF_8) : null;
+        for (Segment segment : candidates) {
+            ByteBuffer data = segment.data.duplicate();
+            int position = segment.positionBefore(fromMillis);
+            int end = segment.end();
+            while (position + 4 <= end) {
+                int length = data.getInt(position);
+                if (length <= 0) {
+                    break;
+                }
+                long atMillis = data.getLong(position + 4);
+                if (atMillis >= toMillis) {
+                    return;
+                }
+                byte code = data.get(position + 20);
+                int idLength = length - (HEADER_BYTES - 4);
+                if ((code & CHECKPOINT_FLAG) == 0 && atMillis >= fromMillis
+                        && (wanted == null || idEquals(data, position + HEADER_BYTES, idLength, wanted))) {
+                    byte[] id = new byte[idLength];
+                    data.get(position + HEADER_BYTES, id);
+                    // A registration's since is its slot
+                    long since = (code & REGISTERED_FLAG) != 0 ? 0 : data.getLong(position + 12);
+                    visitor.visit(new Change(
+                        Instant.ofEpochMilli(atMillis),
+                        new String(id, StandardCharsets.UTF_8),
+                        STATUS_CODES[code & STATUS_MASK],
+                        since == 0 ? null : Instant.ofEpochMilli(since)));
+                }
+                position += 4 + length;
+            }
+        }
+    }
+    
+    public JournalStats getStats() {
+        synchronized (this) {
+            return new JournalStats(segments.size(), active.sequence, active.end(), segmentBytes, dir.toString());
+        }
+    }
+    
+    private synchronized void append(String barnId, BarnStatus status) {
+        write(barnId.getBytes(StandardCharsets.UTF_8), sinceOf(status), codeOf(status));
+    }
+    
+    private synchronized void register(String barnId, int slot) {
+        write(barnId.getBytes(StandardCharsets.UTF_8), slot, REGISTERED_FLAG);
+    }
+    
+    private void write(byte[] id, long since, byte code) {
+        int length = HEADER_BYTES - 4 + id.length;
+        if (active.writePosition + 4 + length + 4 > segmentBytes) {
+            if (rolling) {
+                // Only if the store outgrew what the constructor checked for
+                throw new IllegalStateException("Checkpoint of " + store.size()
+                    + " barns doesn't fit in a " + segmentBytes + "-byte journal segment");
+            }
+            roll();
+        }
+        // Keep times in order even if the wall clock steps back
+        long now = Math.max(lastMillis, System.currentTimeMillis());
+        lastMillis = now;
+        
+        MappedByteBuffer data = active.data;
+        int position = active.writePosition;
+        data.putLong(position + 4, now);
+        data.putLong(position + 12, since);
+        data.put(position + 20, code);
+        data.put(position + HEADER_BYTES, id);
+        data.putInt(position, length);
+        active.writePosition = position + 4 + length;
+        active.maybeIndex(now, position);
+    }
+    
+    /**
+     * Start a new segment and write a checkpoint of every barn into it, in
+     * slot order, then the end record that says it's complete.
+     */
+    private void roll() {
+        long sequence = active == null ? 1 : active.sequence + 1;
+        try {
+            active = Segment.create(dir, sequence, segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.add(active);
+        rolling = true;
+        try {
+            int[] barns = {0};
+            store.forEach((barnId, status) -> {
+                write(barnId.getBytes(StandardCharsets.UTF_8), sinceOf(status),
+                    (byte) (codeOf(status) | CHECKPOINT_FLAG));
+                barns[0]++;
+            });
+            write(NO_ID, barns[0], CHECKPOINT_END);
+        } finally {
+            rolling = false;
+        }
+        
+        while (retainSegments > 0 && segments.size() > retainSegments) {
+            Segment oldest = segments.remove(0);
+            oldest.delete();
+        }
+        log.info("📒 Journal segment {} started ({} barns checkpointed)", sequence, store.size());
+    }
+    
+    private void openExistingSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+        for (Path file : files) {
+            segments.add(Segment.open(file, segmentBytes));
+        }
+        if (!segments.isEmpty()) {
+            active = segments.get(segments.size() - 1);
+        }
+    }
+    
+    /**
+     * Fill the store from the last complete checkpoint and everything
+     * written after it.
+     * 
+     * @return false if the newest segment's checkpoint was never finished,
+     *         so a fresh segment (with a fresh checkpoint) should be started
+     */
+    private boolean rebuild() {
+        int base = segments.size() - 1;
+        while (base >= 0 && checkpointEnd(segments.get(base)) < 0) {
+            base--;
+        }
+        boolean complete = base >= 0;
+        if (!complete) {
+            // Older journals have no end records; the first segment's
+            // checkpoint is the best there is
+            log.warn("📒 No complete checkpoint in the journal - replaying every segment");
+            base = 0;
+        }
+        
+        int moved = 0;
+        int records = 0;
+        for (int i = base; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            ByteBuffer data = segment.data;
+            int position = 0;
+            int checkpointSlot = 0;
+            while (position < segment.end()) {
+                int length = data.getInt(position);
+                long atMillis = data.getLong(position + 4);
+                long since = data.getLong(position + 12);
+                byte code = data.get(position + 20);
+                byte[] id = new byte[length - (HEADER_BYTES - 4)];
+                data.get(position + HEADER_BYTES, id);
+                String barnId = new String(id, StandardCharsets.UTF_8);
+                position += 4 + length;
+                lastMillis = Math.max(lastMillis, atMillis);
+                records++;
+                
+                if (code == CHECKPOINT_END) {
+                    continue;
+                }
+                boolean checkpoint = (code & CHECKPOINT_FLAG) != 0;
+                if (checkpoint && complete && i != base) {
+                    // Already covered by what came before it
+                    continue;
+                }
+                if ((code & REGISTERED_FLAG) != 0) {
+                    moved += place(barnId, (int) since);
+                    continue;
+                }
+                if (checkpoint && i == base) {
+                    moved += place(barnId, checkpointSlot++);
+                } else if (store.get(barnId) == null) {
+                    moved += place(barnId, store.size());
+                }
+                if (STATUS_CODES[code & STATUS_MASK].equals(BarnStore.FIRE)) {
+                    store.ignite(barnId, Instant.ofEpochMilli(since));
+                } else {
+                    store.extinguish(barnId);
+                }
+            }
+        }
+        if (moved > 0) {
+            log.warn("📒 {} barns couldn't go back in their old slots", moved);
+        }
+        log.info("📒 Rebuilt {} barns from journal segments {}-{} ({} records, {} burning)",
+            store.size(), segments.get(base).sequence, active.sequence, records, store.burningCount());
+        return checkpointEnd(active) >= 0;
+    }
+    
+    /**
+     * Put a barn in its old slot if we can, or the next free one if not.
+     * 
+     * @return 1 if it had to move
+     */
+    private int place(String barnId, int slot) {
+        if (store.restore(barnId, slot)) {
+            return 0;
+        }
+        if (store.get(barnId) == null) {
+            store.restore(barnId, store.size());
+        }
+        return 1;
+    }
+    
+    /**
+     * @return where the segment's checkpoint ends, or -1 if it never got
+     *         as far as its end record
+     */
+    private static int checkpointEnd(Segment segment) {
+        ByteBuffer data = segment.data;
+        int position = 0;
+        while (position < segment.end()) {
+            byte code = data.get(position + 20);
+            position += 4 + data.getInt(position);
+            if (code == CHECKPOINT_END) {
+                return position;
+            }
+            if ((code & CHECKPOINT_FLAG) == 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    private static long sinceOf(BarnStatus status) {
+        return status.fireStartedAt() != null ? status.fireStartedAt().toEpochMilli() : 0;
+    }
+    
+    private static byte codeOf(BarnStatus status) {
+        return (byte) (status.isOnFire() ? 1 : 0);
+    }
+    
+    private static boolean idEquals(ByteBuffer data, int position, int length, byte[] wanted) {
+        if (length != wanted.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data.get(position + i) != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * One segment file plus its sparse index (kept in memory and in a
+     * .idx file next to it).
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final Path file;
+        private final Path indexFile;
+        private final MappedByteBuffer data;
+        private final FileChannel indexChannel;
+        // Readers take the latest snapshot and never see it change
+        private volatile Index index = new Index(new long[64], new int[64], 0);
+        private int lastIndexedPosition = -INDEX_EVERY_BYTES;
+        private volatile int writePosition = 0;
+        
+        private Segment(long sequence, Path file, int segmentBytes) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            this.indexFile = Path.of(file.toString().replace(".seg", ".idx"));
+            try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+                this.data = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            this.indexChannel = FileChannel.open(indexFile, CREATE, WRITE, APPEND);
+        }
+        
+        static Segment create(Path dir, long sequence, int segmentBytes) throws IOException {
+            return new Segment(sequence, dir.resolve(String.format("%012d.seg", sequence)), segmentBytes);
+        }
+        
+        static Segment open(Path file, int segmentBytes) throws IOException {
+            long sequence = Long.parseLong(file.getFileName().toString().replace(".seg", ""));
+            Segment segment = new Segment(sequence, file, segmentBytes);
+            segment.loadIndex();
+            // Closed segments: the end is wherever the records stop
+            segment.writePosition = segment.scanEnd(segmentBytes);
+            return segment;
+        }
+        
+        long firstMillis() {
+            Index current = index;
+            return current.count > 0 ? current.times[0] : Long.MAX_VALUE;
+        }
+        
+        int end() {
+            return writePosition;
+        }
+        
+        /**
+         * Where to start reading for records at or after {@code millis}:
+         * the last index entry before it.
+         */
+        int positionBefore(long millis) {
+            Index current = index;
+            int low = 0;
+            int high = current.count - 1;
+            int best = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (current.times[mid] < millis) {
+                    best = current.positions[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return best;
+        }
+        
+        void maybeIndex(long millis, int position) {
+            if (position - lastIndexedPosition < INDEX_EVERY_BYTES) {
+                return;
+            }
+            lastIndexedPosition = position;
+            addIndexEntry(millis, position);
+            ByteBuffer entry = ByteBuffer.allocate(12).putLong(millis).putInt(position).flip();
+            try {
+                indexChannel.write(entry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        /**
+         * Entries below a snapshot's count are never written again, so the
+         * new entry can go in the same arrays (past the end readers look at)
+         * until they're full; then it's a copy.
+         */
+        private void addIndexEntry(long millis, int position) {
+            Index current = index;
+            long[] times = current.times;
+            int[] positions = current.positions;
+            if (current.count == times.length) {
+                times = Arrays.copyOf(times, current.count * 2);
+                positions = Arrays.copyOf(positions, current.count * 2);
+            }
+            times[current.count] = millis;
+            positions[current.count] = position;
+            index = new Index(times, positions, current.count + 1);
+        }
+        
+        private void loadIndex() throws IOException {
+            ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+            while (entries.remaining() >= 12) {
+                long millis = entries.getLong();
+                int position = entries.getInt();
+                addIndexEntry(millis, position);
+                lastIndexedPosition = position;
+            }
+        }
+        
+        private int scanEnd(int segmentBytes) {
+            Index current = index;
+            int position = current.count > 0 ? current.positions[current.count - 1] : 0;
+            while (position + 4 <= segmentBytes) {
+                int length = data.getInt(position);
+                if (length <= 0 || position + 4 + length > segmentBytes) {
+                    break;
+                }
+                position += 4 + length;
+            }
+            return position;
+        }
+        
+        void delete() {
+            try {
+                indexChannel.close();
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(indexFile);
+            } catch (IOException e) {
+                log.warn("Could not delete old journal segment {}: {}", file, e.getMessage());
+            }
+        }
+    }
+    
+    private record Index(long[] times, int[] positions, int count) {}
+    
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void visit(Change change) throws IOException;
+    }
+    
+    /**
+     * @param at when the change was recorded
+     * @param fireStartedAt when the fire started (null if the barn is OK)
+     */
+    public record Change(Instant at, String barnId, String status, Instant fireStartedAt) {}
+    
+    /**
+     * @param activeBytes bytes used in the segment being written
+     */
+    public record JournalStats(int segments, long activeSegment, int activeBytes, int segmentBytes, String dir) {}
+}
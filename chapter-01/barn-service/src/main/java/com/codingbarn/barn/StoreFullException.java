@@ -0,0 +1,17 @@
+package com.codingbarn.barn;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * No room for another barn. A 507, since it's the store that's out of
+ * space, not the request that's wrong.
+ */
+public class StoreFullException extends ResponseStatusException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public StoreFullException(int capacity) {
+        super(HttpStatus.INSUFFICIENT_STORAGE, "Barn store is full (" + capacity + " barns)");
+    }
+}
@@ -0,0 +1,76 @@
+package com.codingbarn.barn;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Where barns send their sensor readings, and where you can look at them.
+ * See {@link TelemetryService} for the batch format.
+ */
+@RestController
+@RequestMapping("/barn")
+public class TelemetryController {
+    
+    private static final int MAX_BUCKETS = 10_000;
+    
+    private final TelemetryService telemetry;
+    
+    public TelemetryController(TelemetryService telemetry) {
+        this.telemetry = telemetry;
+    }
+    
+    @PostMapping(value = "/telemetry", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public TelemetryService.IngestResult ingest(HttpServletRequest request) throws IOException {
+        // Read the body ourselves: one array per batch, no per-reading objects
+        byte[] body = request.getInputStream().readAllBytes();
+        try {
+            return telemetry.ingest(ByteBuffer.wrap(body));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+    
+    /**
+     * Readings for one barn, summarized into buckets, e.g.
+     * {@code /barn/barn-7/telemetry?from=...&to=...&step=10s}. Times are
+     * epoch millis; the default is the last five minutes.
+     */
+    @GetMapping("/{barnId}/telemetry")
+    public List<SensorSeries.Bucket> query(
+            @PathVariable String barnId,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "1s") String step) {
+        long toMillis = to != null ? to : System.currentTimeMillis();
+        long fromMillis = from != null ? from : toMillis - 300_000;
+        long stepMillis;
+        try {
+            stepMillis = Math.max(1, DurationStyle.detectAndParse(step).toMillis());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bad step: " + step);
+        }
+        if ((toMillis - fromMillis) / stepMillis > MAX_BUCKETS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Too many buckets; use a bigger step (at most " + MAX_BUCKETS + " buckets)");
+        }
+        
+        List<SensorSeries.Bucket> buckets = telemetry.query(barnId, fromMillis, toMillis, stepMillis);
+        if (buckets == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No readings from " + barnId);
+        }
+        return buckets;
+    }
+    
+    @GetMapping("/telemetry/stats")
+    public TelemetryService.TelemetryStats getStats() {
+        return telemetry.getStats();
+    }
+}
@@ -0,0 +1,296 @@
+package com.codingbarn.barn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sensor readings from the barns themselves, and fires they start.
+ * 
+ * Until now a fire only started when someone POSTed /ignite. Now barns
+ * stream temperature and smoke readings, and a barn that gets too hot,
+ * too smoky, or heats up too fast is set on fire in the {@link BarnStore}
+ * automatically.
+ * 
+ * Readings arrive in binary batches, big-endian:
+ * <pre>
+ *   section := u16 idLength, idLength bytes of UTF-8 barn id, i32 count, count x reading
+ *   reading := i64 epochMillis, f32 temperatureC, f32 smokePpm
+ * </pre>
+ * A batch holds one or more sections. Readings are copied straight from
+ * the request buffer into the barn's {@link SensorSeries} - no object per
+ * reading - which is what lets one node take in millions per second.
+ * 
+ * At most {@code telemetry.max-series} barns have readings kept at once.
+ * When another barn starts reporting, the one that has been quiet the
+ * longest is forgotten (its status in the store stays), so memory has a
+ * ceiling however many barns the county builds.
+ * 
+ * Sensor clocks can't be trusted blindly: a reading more than
+ * {@code telemetry.max-clock-ahead-ms} ahead of ours, or more than
+ * {@code telemetry.max-age-ms} behind, is dropped and counted as out of
+ * range rather than filed (or used to date a fire).
+ */
+@Component
+public class TelemetryService {
+    
+    private static final Logger log = LoggerFactory.getLogger(TelemetryService.class);
+    
+    private static final int WINDOW_SECONDS = 10;
+    
+    private final BarnStore store;
+    private final SensorSeries.FireRules rules;
+    private final int samplesPerBarn;
+    private final boolean offHeap;
+    private final int maxSeries;
+    private final long maxClockAheadMillis;
+    private final long maxAgeMillis;
+    private final Map<String, SensorSeries> series = new ConcurrentHashMap<>();
+    
+    private final AtomicLong samplesIngested = new AtomicLong(0);
+    private final AtomicLong batchesIngested = new AtomicLong(0);
+    private final AtomicLong ingestNanos = new AtomicLong(0);
+    private final AtomicLong autoIgnitions = new AtomicLong(0);
+    private final AtomicLong lateReadings = new AtomicLong(0);
+    private final AtomicLong outOfRangeReadings = new AtomicLong(0);
+    private final AtomicLong seriesEvicted = new AtomicLong(0);
+    // Samples per second, one slot per second (same idea as a rate meter).
+    // Each slot is (epoch second << 32 | count), so moving a slot on to a
+    // new second and counting into it is one compare-and-set - nothing
+    // counted in between can be wiped out.
+    private final AtomicLongArray perSecond = new AtomicLongArray(WINDOW_SECONDS);
+    
+    public TelemetryService(
+            BarnStore store,
+            @Value("${telemetry.samples-per-barn:16384}") int samplesPerBarn,
+            @Value("${telemetry.off-heap:true}") boolean offHeap,
+            @Value("${telemetry.max-series:1024}") int maxSeries,
+            @Value("${telemetry.max-clock-ahead-ms:5000}") long maxClockAheadMillis,
+            @Value("${telemetry.max-age-ms:3600000}") long maxAgeMillis,
+            @Value("${telemetry.rules.max-temperature:80}") float maxTemperature,
+            @Value("${telemetry.rules.max-smoke-ppm:300}") float maxSmokePpm,
+            @Value("${telemetry.rules.max-rise-per-minute:8.3}") float maxRisePerMinute,
+            @Value("${telemetry.rules.rise-window-ms:30000}") long riseWindowMillis) {
+        this.store = store;
+        this.samplesPerBarn = samplesPerBarn;
+        this.offHeap = offHeap;
+        if (samplesPerBarn < 1 || maxSeries < 1) {
+            throw new IllegalArgumentException("telemetry.samples-per-barn and telemetry.max-series must be at least 1");
+        }
+        this.maxSeries = maxSeries;
+        if (maxClockAheadMillis < 0 || maxAgeMillis < 0) {
+            throw new IllegalArgumentException("telemetry.max-clock-ahead-ms and telemetry.max-age-ms can't be negative");
+        }
+        this.maxClockAheadMillis = maxClockAheadMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.rules = new SensorSeries.FireRules(maxTemperature, maxSmokePpm, maxRisePerMinute, riseWindowMillis);
+        
+        // Once a barn is put out, its rules can trip again
+        store.addListener((barnId, status) -> {
+            SensorSeries barnSeries = series.get(barnId);
+            if (barnSeries != null && !status.isOnFire()) {
+                barnSeries.reset();
+            }
+        });
+    }
+    
+    /**
+     * Take in one binary batch.
+     * 
+     * @throws IllegalArgumentException if the batch is malformed (readings
+     *         before the bad section are kept)
+     */
+    public IngestResult ingest(ByteBuffer batch) {
+        long start = System.nanoTime();
+        int samples = 0;
+        int sections = 0;
+        int fires = 0;
+        int late = 0;
+        int outOfRange = 0;
+        long now = System.currentTimeMillis();
+        long notBefore = now - maxAgeMillis;
+        long notAfter = now + maxClockAheadMillis;
+        
+        while (batch.hasRemaining()) {
+            if (batch.remaining() < 2) {
+                throw new IllegalArgumentException("Truncated section header at byte " + batch.position());
+            }
+            int idLength = batch.getShort() & 0xFFFF;
+            if (batch.remaining() < idLength + 4) {
+                throw new IllegalArgumentException("Truncated section header at byte " + batch.position());
+            }
+            String barnId = new String(batch.array(), batch.arrayOffset() + batch.position(), idLength,
+                StandardCharsets.UTF_8);
+            batch.position(batch.position() + idLength);
+            int count = batch.getInt();
+            if (count < 0 || (long) count * SensorSeries.RECORD_BYTES > batch.remaining()) {
+                throw new IllegalArgumentException("Section for " + barnId + " claims " + count + " readings");
+            }
+            
+            SensorSeries.Appended appended = seriesFor(barnId).append(batch, count, rules, notBefore, notAfter);
+            late += appended.late();
+            outOfRange += appended.outOfRange();
+            if (appended.trippedAt() >= 0) {
+                fires++;
+                autoIgnitions.incrementAndGet();
+                store.ignite(barnId, Instant.ofEpochMilli(appended.trippedAt()));
+                log.warn("🔥 Sensors in {} tripped a fire rule - barn set on fire", barnId);
+            }
+            samples += count;
+            sections++;
+        }
+        
+        samplesIngested.addAndGet(samples);
+        batchesIngested.incrementAndGet();
+        ingestNanos.addAndGet(System.nanoTime() - start);
+        if (late > 0) {
+            lateReadings.addAndGet(late);
+        }
+        if (outOfRange > 0) {
+            outOfRangeReadings.addAndGet(outOfRange);
+            log.debug("Dropped {} readings stamped outside the trusted window", outOfRange);
+        }
+        recordRate(samples);
+        return new IngestResult(samples, sections, fires, late, outOfRange);
+    }
+    
+    /**
+     * Readings for one barn between two times, in buckets of {@code stepMillis}.
+     * 
+     * @return null if the barn has never sent a reading
+     */
+    public List<SensorSeries.Bucket> query(String barnId, long fromMillis, long toMillis, long stepMillis) {
+        SensorSeries barnSeries = series.get(barnId);
+        return barnSeries == null ? null : barnSeries.downsample(fromMillis, toMillis, stepMillis);
+    }
+    
+    public TelemetryStats getStats() {
+        long samples = samplesIngested.get();
+        long bufferBytes = 0;
+        for (SensorSeries barnSeries : series.values()) {
+            bufferBytes += barnSeries.allocatedBytes();
+        }
+        return new TelemetryStats(
+            samples,
+            batchesIngested.get(),
+            samplesPerSecond(),
+            samples > 0 ? ingestNanos.get() / (double) samples : 0,
+            autoIgnitions.get(),
+            lateReadings.get(),
+            outOfRangeReadings.get(),
+            series.size(),
+            maxSeries,
+            seriesEvicted.get(),
+            bufferBytes,
+            samplesPerBarn,
+            offHeap
+        );
+    }
+    
+    private SensorSeries seriesFor(String barnId) {
+        SensorSeries barnSeries = series.get(barnId);
+        if (barnSeries != null) {
+            return barnSeries;
+        }
+        store.register(barnId);
+        return addSeries(barnId);
+    }
+    
+    /**
+     * New barns are rare next to readings, so making room one barn at a
+     * time under a lock (and scanning for the quietest) is fine.
+     * 
+     * A batch already appending to the barn we evict finishes into a
+     * series nobody can see any more - those readings are lost, which is
+     * the price of a barn that went quiet for longer than everyone else.
+     */
+    private synchronized SensorSeries addSeries(String barnId) {
+        SensorSeries existing = series.get(barnId);
+        if (existing != null) {
+            return existing;
+        }
+        if (series.size() >= maxSeries) {
+            String quietest = null;
+            long quietSince = Long.MAX_VALUE;
+            for (Map.Entry<String, SensorSeries> entry : series.entrySet()) {
+                if (entry.getValue().lastAppendedAt() < quietSince) {
+                    quietSince = entry.getValue().lastAppendedAt();
+                    quietest = entry.getKey();
+                }
+            }
+            if (quietest != null && series.remove(quietest) != null) {
+                seriesEvicted.incrementAndGet();
+                log.info("Forgot readings from {} to make room for {}", quietest, barnId);
+            }
+        }
+        SensorSeries barnSeries = new SensorSeries(samplesPerBarn, offHeap);
+        series.put(barnId, barnSeries);
+        return barnSeries;
+    }
+    
+    private void recordRate(int samples) {
+        long now = System.currentTimeMillis() / 1000;
+        int slot = (int) (now % WINDOW_SECONDS);
+        while (true) {
+            long current = perSecond.get(slot);
+            long next = current >>> 32 == now
+                ? current + samples
+                : now << 32 | samples;
+            if (perSecond.compareAndSet(slot, current, next)) {
+                return;
+            }
+        }
+    }
+    
+    private double samplesPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long slot = perSecond.get(i);
+            long age = now - (slot >>> 32);
+            if (age >= 1 && age <= WINDOW_SECONDS) {
+                total += slot & 0xFFFF_FFFFL;
+            }
+        }
+        return total / (double) WINDOW_SECONDS;
+    }
+    
+    /**
+     * @param fires barns this batch set on fire
+     * @param late readings dropped for arriving after newer ones from the same barn
+     * @param outOfRange readings dropped for a timestamp too far from our clock
+     */
+    public record IngestResult(int samples, int barns, int fires, int late, int outOfRange) {}
+    
+    /**
+     * @param samplesPerSecond average over the last 10 full seconds
+     * @param avgIngestNanosPerSample parse + store + rule check, per reading
+     * @param barnsEvicted barns whose readings were forgotten to stay under maxBarns
+     * @param bufferBytes memory the kept readings actually take up
+     */
+    public record TelemetryStats(
+        long samplesIngested,
+        long batchesIngested,
+        double samplesPerSecond,
+        double avgIngestNanosPerSample,
+        long autoIgnitions,
+        long lateReadings,
+        long outOfRangeReadings,
+        int barnsReporting,
+        int maxBarns,
+        long barnsEvicted,
+        long bufferBytes,
+        int samplesPerBarn,
+        boolean offHeap
+    ) {}
+}
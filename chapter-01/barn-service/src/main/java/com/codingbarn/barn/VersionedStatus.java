@@ -0,0 +1,111 @@
+package com.codingbarn.barn;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A barn status plus a version number that goes up every time it changes.
+ * 
+ * The version doubles as an ETag, so pollers can ask "has anything changed
+ * since version 42?" with If-None-Match and get a tiny 304 back instead of
+ * the whole status, most of the time.
+ * 
+ * The tag includes a random id for this barn in this run of the service,
+ * so a tag handed out before a restart (or by another barn) never matches.
+ * 
+ * Callers can also wait for the version to move on. Waiters are parked in
+ * a set, not on threads; a change hands the new snapshot to each of them.
+ */
+class VersionedStatus {
+    
+    private final String instance = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final AtomicReference<Snapshot> current;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    
+    VersionedStatus(BarnStatus initial) {
+        this.current = new AtomicReference<>(new Snapshot(initial, 1, etag(1)));
+    }
+    
+    Snapshot get() {
+        return current.get();
+    }
+    
+    void set(BarnStatus status) {
+        Snapshot updated = current.updateAndGet(previous -> {
+            long version = previous.version() + 1;
+            return new Snapshot(status, version, etag(version));
+        });
+        for (Waiter waiter : waiters) {
+            waiter.wakeIfChanged(updated);
+        }
+    }
+    
+    /**
+     * Call {@code onChange} once the version is no longer
+     * {@code fromVersion} - straight away if it already isn't (which also
+     * covers clients holding a version from before a restart).
+     * 
+     * @return cancels the wait, e.g. when the caller gives up
+     */
+    Runnable awaitChange(long fromVersion, Consumer<Snapshot> onChange) {
+        Waiter waiter = new Waiter(fromVersion, onChange);
+        waiters.add(waiter);
+        // Check after registering, so a change in between isn't missed
+        waiter.wakeIfChanged(current.get());
+        return () -> waiters.remove(waiter);
+    }
+    
+    int waiting() {
+        return waiters.size();
+    }
+    
+    private String etag(long version) {
+        return "\"" + instance + "-" + version + "\"";
+    }
+    
+    private final class Waiter {
+        private final long fromVersion;
+        private final Consumer<Snapshot> onChange;
+        
+        private Waiter(long fromVersion, Consumer<Snapshot> onChange) {
+            this.fromVersion = fromVersion;
+            this.onChange = onChange;
+        }
+        
+        private void wakeIfChanged(Snapshot snapshot) {
+            // Only whoever removes the waiter gets to wake it, so it's woken once
+            if (snapshot.version() != fromVersion && waiters.remove(this)) {
+                onChange.accept(snapshot);
+            }
+        }
+    }
+    
+    /**
+     * @param etag the quoted entity tag for this version, built once
+     */
+    record Snapshot(BarnStatus status, long version, String etag) {
+        
+        /**
+         * Does an If-None-Match header already name this version?
+         * Handles "*", lists of tags and weak (W/) tags.
+         */
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.strip();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
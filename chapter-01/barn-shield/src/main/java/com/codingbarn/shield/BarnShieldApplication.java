@@ -0,0 +1,11 @@
+package com.codingbarn.shield;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class BarnShieldApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(BarnShieldApplication.class, args);
+    }
+}
@@ -0,0 +1,60 @@
+package com.codingbarn.shield;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Serves the fragile barn's status to as many pollers as you like.
+ * 
+ * The path is the same as the barn's, so a poller only has to change its
+ * base URL. Every answer carries:
+ * <ul>
+ *   <li>Age - seconds since the barn last confirmed this status</li>
+ *   <li>X-Cache - HIT if served from the copy, MISS if this request
+ *       waited on a call to the barn</li>
+ *   <li>the barn's ETag, so If-None-Match still gets a cheap 304</li>
+ * </ul>
+ */
+@RestController
+public class ShieldController {
+    
+    private final StatusShield shield;
+    
+    public ShieldController(StatusShield shield) {
+        this.shield = shield;
+    }
+    
+    @GetMapping("/fragile-barn/status")
+    public ResponseEntity<byte[]> getStatus(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        StatusShield.Lookup lookup = shield.lookup();
+        StatusShield.Cached cached = lookup.cached();
+        if (cached == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "10")
+                .build();
+        }
+        
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AGE, Long.toString(cached.ageSeconds()));
+        headers.set("X-Cache", lookup.upstreamCalled() ? "MISS" : "HIT");
+        if (cached.etag() != null) {
+            headers.setETag(cached.etag());
+            if (cached.etag().equals(ifNoneMatch) || "*".equals(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+            }
+        }
+        return ResponseEntity.ok()
+            .headers(headers)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(cached.body());
+    }
+    
+    @GetMapping("/shield/stats")
+    public StatusShield.ShieldStats getStats() {
+        return shield.getStats();
+    }
+}
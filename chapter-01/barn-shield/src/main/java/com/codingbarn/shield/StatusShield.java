@@ -0,0 +1,247 @@
+package com.codingbarn.shield;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a copy of the fragile barn's status and hands it out to anyone
+ * who asks, so the barn itself only ever sees one polite client.
+ * 
+ * The shield asks the barn how much it's allowed to poll
+ * (/fragile-barn/rate-limit) and never refreshes more often than that.
+ * In between, every request is answered from the cached copy - with an
+ * Age header saying how old it is.
+ * 
+ * When the copy is due for a refresh and a hundred pollers arrive at once,
+ * only the first one goes upstream. The rest wait for that same call to
+ * finish (request collapsing), so upstream load stays flat no matter how
+ * many pollers there are.
+ */
+@Component
+public class StatusShield {
+    
+    private static final Logger log = LoggerFactory.getLogger(StatusShield.class);
+    
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final URI statusUri;
+    private final URI rateLimitUri;
+    private final String clientId;
+    private final Duration timeout;
+    private final long fallbackIntervalMs;
+    
+    private volatile Cached cached = null;
+    private final AtomicReference<CompletableFuture<Cached>> inFlight = new AtomicReference<>();
+    private volatile long intervalMs = -1;
+    private volatile long nextRefreshAt = 0;
+    
+    private final AtomicLong downstreamRequests = new AtomicLong(0);
+    private final AtomicLong servedFromCache = new AtomicLong(0);
+    private final AtomicLong collapsed = new AtomicLong(0);
+    private final AtomicLong upstreamCalls = new AtomicLong(0);
+    private final AtomicLong upstreamNotModified = new AtomicLong(0);
+    private final AtomicLong upstreamErrors = new AtomicLong(0);
+    
+    public StatusShield(
+            ObjectMapper objectMapper,
+            @Value("${upstream.url:http://localhost:8080}") String upstreamUrl,
+            @Value("${upstream.status-path:/fragile-barn/status}") String statusPath,
+            @Value("${upstream.rate-limit-path:/fragile-barn/rate-limit}") String rateLimitPath,
+            @Value("${upstream.client-id:barn-shield}") String clientId,
+            @Value("${upstream.timeout-ms:2000}") long timeoutMs,
+            @Value("${shield.fallback-interval-ms:10000}") long fallbackIntervalMs) {
+        this.objectMapper = objectMapper;
+        this.statusUri = URI.create(upstreamUrl + statusPath);
+        this.rateLimitUri = URI.create(upstreamUrl + rateLimitPath);
+        this.clientId = clientId;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.fallbackIntervalMs = fallbackIntervalMs;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+    
+    /**
+     * The barn's status, from the cache if it isn't time to refresh yet.
+     * 
+     * @return what to serve; {@link Lookup#cached()} is null if we have
+     *         never managed to reach the barn
+     */
+    public Lookup lookup() {
+        downstreamRequests.incrementAndGet();
+        if (!refreshDue()) {
+            servedFromCache.incrementAndGet();
+            return new Lookup(cached, false);
+        }
+        
+        CompletableFuture<Cached> mine = new CompletableFuture<>();
+        CompletableFuture<Cached> running = inFlight.compareAndExchange(null, mine);
+        if (running != null) {
+            // Someone is already asking the barn; wait for their answer
+            collapsed.incrementAndGet();
+            return new Lookup(running.join(), true);
+        }
+        
+        Cached result = cached;
+        try {
+            // Check again: a refresh may have finished just before we got here
+            if (refreshDue()) {
+                result = refresh(result);
+                return new Lookup(result, true);
+            }
+            servedFromCache.incrementAndGet();
+            return new Lookup(result, false);
+        } finally {
+            inFlight.set(null);
+            mine.complete(result);
+        }
+    }
+    
+    public ShieldStats getStats() {
+        Cached current = cached;
+        return new ShieldStats(
+            downstreamRequests.get(),
+            servedFromCache.get(),
+            collapsed.get(),
+            upstreamCalls.get(),
+            upstreamNotModified.get(),
+            upstreamErrors.get(),
+            intervalMs,
+            current != null ? current.ageSeconds() : -1
+        );
+    }
+    
+    private boolean refreshDue() {
+        return System.currentTimeMillis() >= nextRefreshAt;
+    }
+    
+    /**
+     * One call to the barn. Never throws: if the barn can't be reached,
+     * the old copy is kept and served stale.
+     */
+    private Cached refresh(Cached previous) {
+        long now = System.currentTimeMillis();
+        nextRefreshAt = now + interval();
+        upstreamCalls.incrementAndGet();
+        
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(statusUri)
+                .timeout(timeout)
+                .header(CLIENT_ID_HEADER, clientId);
+            if (previous != null && previous.etag() != null) {
+                request.header("If-None-Match", previous.etag());
+            }
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            
+            if (response.statusCode() == 304 && previous != null) {
+                upstreamNotModified.incrementAndGet();
+                return cache(new Cached(previous.body(), previous.etag(), now));
+            }
+            if (response.statusCode() == 200) {
+                String etag = response.headers().firstValue("ETag").orElse(null);
+                log.info("🛡 Refreshed barn status from upstream ({} bytes)", response.body().length);
+                return cache(new Cached(response.body(), etag, now));
+            }
+            
+            upstreamErrors.incrementAndGet();
+            long retryAfterSeconds = response.headers().firstValueAsLong("Retry-After").orElse(0);
+            if (retryAfterSeconds > 0) {
+                nextRefreshAt = Math.max(nextRefreshAt, now + retryAfterSeconds * 1000);
+            }
+            // Our budget may have changed; ask again next time
+            intervalMs = -1;
+            log.warn("⚠ Barn answered {}; serving the cached status for now", response.statusCode());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            upstreamErrors.incrementAndGet();
+            log.warn("⚠ Could not reach the barn: {}", e.getMessage());
+        }
+        return previous;
+    }
+    
+    private Cached cache(Cached fresh) {
+        cached = fresh;
+        return fresh;
+    }
+    
+    /**
+     * How long to wait between upstream calls: the barn's period divided by
+     * the number of requests it allows us, as reported by its rate-limit
+     * endpoint (which doesn't count against the budget).
+     */
+    private long interval() {
+        if (intervalMs > 0) {
+            return intervalMs;
+        }
+        try {
+            HttpRequest request = HttpRequest.newBuilder(rateLimitUri)
+                .timeout(timeout)
+                .header(CLIENT_ID_HEADER, clientId)
+                .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            JsonNode budget = objectMapper.readTree(response.body());
+            long periodMs = budget.path("periodSeconds").asLong() * 1000;
+            int maxRequests = budget.path("maxRequests").asInt();
+            if (response.statusCode() == 200 && periodMs > 0 && maxRequests > 0) {
+                intervalMs = (periodMs + maxRequests - 1) / maxRequests;
+                log.info("🛡 Upstream budget: {} requests per {} s - refreshing every {} ms",
+                    maxRequests, periodMs / 1000, intervalMs);
+                return intervalMs;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("⚠ Could not read the barn's rate limit: {}", e.getMessage());
+        }
+        return fallbackIntervalMs;
+    }
+    
+    /**
+     * A copy of the barn's answer, exactly as it sent it.
+     * 
+     * @param fetchedAtMillis when the barn last confirmed this status
+     */
+    public record Cached(byte[] body, String etag, long fetchedAtMillis) {
+        
+        public long ageSeconds() {
+            return (System.currentTimeMillis() - fetchedAtMillis) / 1000;
+        }
+    }
+    
+    /**
+     * @param cached the status to serve (null if the barn has never answered)
+     * @param upstreamCalled whether this request waited on a call to the barn
+     */
+    public record Lookup(Cached cached, boolean upstreamCalled) {}
+    
+    /**
+     * @param servedFromCache requests answered without waiting on the barn
+     * @param collapsed requests that piggybacked on another request's upstream call
+     * @param upstreamIntervalMs time between upstream calls (-1 until the budget is known)
+     * @param ageSeconds how old the cached status is (-1 if there isn't one)
+     */
+    public record ShieldStats(
+        long downstreamRequests,
+        long servedFromCache,
+        long collapsed,
+        long upstreamCalls,
+        long upstreamNotModified,
+        long upstreamErrors,
+        long upstreamIntervalMs,
+        long ageSeconds
+    ) {}
+}
@@ -0,0 +1,139 @@
+package com.codingbarn.firehouse;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long to wait before the next poll.
+ * 
+ * A fixed interval is wrong in both directions. When the barn is
+ * struggling (503s, timeouts) it keeps hammering at the same rate; when
+ * the barn is busy catching fire and being put out, it's too slow.
+ * 
+ * So the interval moves:
+ * - On a 503 or timeout it is multiplied (doubled by default), up to a
+ *   ceiling, and a Retry-After from the barn is always respected.
+ * - When the barn has changed status recently, it tightens down to a
+ *   floor, because more changes are likely.
+ * - Otherwise it drifts back to the configured interval, dividing by the
+ *   same factor each successful poll rather than snapping back at once.
+ * 
+ * Every delay gets some random jitter, so a fleet of firehouses that
+ * started together (or all backed off from the same outage) doesn't keep
+ * polling in lockstep. The jittered delay still stays between the floor
+ * and the ceiling (a Retry-After can push it past the ceiling).
+ * 
+ * Only the poll in progress changes it (there is one at a time per barn);
+ * stats can read it from anywhere.
+ */
+class AdaptiveInterval {
+    
+    private final long baseMs;
+    private final long floorMs;
+    private final long ceilingMs;
+    private final double factor;
+    private final double jitter;
+    private final long unstableWindowMs;
+    
+    private volatile long currentMs;
+    private volatile long lastDelayMs;
+    private volatile long lastChangeAtMs = Long.MIN_VALUE;
+    private final AtomicLong backoffs = new AtomicLong(0);
+    private final AtomicLong retryAftersHonoured = new AtomicLong(0);
+    
+    AdaptiveInterval(long baseMs, long floorMs, long ceilingMs, double factor, double jitter, long unstableWindowMs) {
+        this.baseMs = baseMs;
+        this.floorMs = Math.min(floorMs, baseMs);
+        this.ceilingMs = Math.max(ceilingMs, baseMs);
+        this.factor = Math.max(1.0, factor);
+        this.jitter = Math.max(0.0, Math.min(jitter, 1.0));
+        this.unstableWindowMs = unstableWindowMs;
+        this.currentMs = baseMs;
+        this.lastDelayMs = baseMs;
+    }
+    
+    /**
+     * The barn answered.
+     * 
+     * @param changed whether its status was different from last time
+     * @return milliseconds until the next poll
+     */
+    long onSuccess(boolean changed, long nowMs) {
+        if (changed) {
+            lastChangeAtMs = nowMs;
+        }
+        long target = isUnstable(nowMs) ? floorMs : baseMs;
+        long current = currentMs;
+        if (current > target) {
+            // Recovering from a backoff (or calming down): ease back, don't snap
+            current = Math.max(target, (long) (current / factor));
+        } else {
+            current = target;
+        }
+        currentMs = current;
+        return delay(jittered(current));
+    }
+    
+    /**
+     * The barn is overloaded (503, 429) or didn't answer in time.
+     * 
+     * @param retryAfterMs what the barn asked for in Retry-After (0 if nothing)
+     * @return milliseconds until the next poll
+     */
+    long onOverload(long retryAfterMs) {
+        long current = Math.min(ceilingMs, (long) Math.ceil(currentMs * factor));
+        currentMs = current;
+        backoffs.incrementAndGet();
+        
+        long next = jittered(current);
+        if (retryAfterMs > next) {
+            // Never earlier than asked; jitter only pushes it later
+            retryAftersHonoured.incrementAndGet();
+            next = retryAfterMs + (long) (ThreadLocalRandom.current().nextDouble() * jitter * retryAfterMs);
+        }
+        return delay(next);
+    }
+    
+    /**
+     * Some other failure - connection refused, a garbage answer. Nothing
+     * says the barn is struggling, so keep the current pace.
+     */
+    long onError() {
+        return delay(jittered(currentMs));
+    }
+    
+    long currentMs() {
+        return currentMs;
+    }
+    
+    long lastDelayMs() {
+        return lastDelayMs;
+    }
+    
+    long backoffs() {
+        return backoffs.get();
+    }
+    
+    long retryAftersHonoured() {
+        return retryAftersHonoured.get();
+    }
+    
+    boolean isUnstable(long nowMs) {
+        long lastChange = lastChangeAtMs;
+        return lastChange != Long.MIN_VALUE && nowMs - lastChange < unstableWindowMs;
+    }
+    
+    private long jittered(long intervalMs) {
+        if (jitter == 0) {
+            return intervalMs;
+        }
+        double spread = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * jitter;
+        long jittered = Math.round(intervalMs * (1 + spread));
+        return Math.max(Math.max(1, floorMs), Math.min(ceilingMs, jittered));
+    }
+    
+    private long delay(long delayMs) {
+        lastDelayMs = delayMs;
+        return delayMs;
+    }
+}
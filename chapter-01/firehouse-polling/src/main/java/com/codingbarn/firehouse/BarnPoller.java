@@ -1,20 +1,38 @@
 package com.codingbarn.firehouse;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Polls the barn service for status on a fixed interval.
+ * Polls the barn service for status.
  * 
  * This is the "old way" - we have to keep asking "are you on fire?"
  * because the barn can't tell us when something happens.
@@ -23,13 +41,30 @@ import java.util.concurrent.atomic.AtomicReference;
  * - How many checks happen when nothing is wrong (wasted effort)
  * - The delay between fire starting and fire detection
  * - What happens if we poll too aggressively (fragile system)
+ * 
+ * We do at least ask politely: every poll sends the ETag from the last
+ * answer, and when the barn says "304 Not Modified" there's nothing to
+ * download or parse. The stats show how much that saves.
+ * 
+ * And we don't poll on a fixed beat: see {@link AdaptiveInterval} for how
+ * the wait between polls backs off when the barn is overwhelmed and
+ * tightens when things are happening.
+ * 
+ * Averages hide the slow polls and the late detections we actually care
+ * about, so every round trip and every detection delay also goes into a
+ * {@link RollingLatency}: one histogram per minute for the last hour.
  */
 @Component
 public class BarnPoller {
     
     private static final Logger log = LoggerFactory.getLogger(BarnPoller.class);
     
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final long MINUTE_MS = 60_000;
+    
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("barn-poller").factory());
     
     @Value("${barn.service.url:http://localhost:8080}")
     private String barnServiceUrl;
@@ -40,6 +75,23 @@ public class BarnPoller {
     @Value("${polling.interval.ms:10000}")
     private int pollingIntervalMs;
     
+    @Value("${polling.min-interval-ms:2000}")
+    private long minIntervalMs;
+    
+    @Value("${polling.max-interval-ms:120000}")
+    private long maxIntervalMs;
+    
+    @Value("${polling.backoff-multiplier:2.0}")
+    private double backoffMultiplier;
+    
+    @Value("${polling.jitter:0.1}")
+    private double jitter;
+    
+    @Value("${polling.unstable-window-ms:300000}")
+    private long unstableWindowMs;
+    
+    private AdaptiveInterval interval;
+    
     // Track when we detected the fire (to calculate response time)
     private final AtomicReference<Instant> fireDetectedAt = new AtomicReference<>(null);
     
@@ -50,20 +102,111 @@ public class BarnPoller {
     private final AtomicInteger firesDetected = new AtomicInteger(0);
     private final AtomicLong totalResponseTimeMs = new AtomicLong(0);
     
-    @Scheduled(fixedRateString = "${polling.interval.ms:10000}")
-    public void checkBarn() {
+    // Latency over time: one bucket per minute, an hour back
+    private final RollingLatency roundTripMicros = new RollingLatency(MINUTE_MS, 61);
+    private final RollingLatency detectionMs = new RollingLatency(MINUTE_MS, 61);
+    
+    // Conditional GET
+    private volatile String lastEtag = null;
+    private volatile BarnStatus lastStatus = null;
+    private volatile int lastBodyBytes = 0;
+    private final AtomicInteger notModifiedPolls = new AtomicInteger(0);
+    private final AtomicLong bytesDownloaded = new AtomicLong(0);
+    private final AtomicLong bytesSaved = new AtomicLong(0);
+    private final AtomicLong parseNanos = new AtomicLong(0);
+    private final AtomicInteger bodiesParsed = new AtomicInteger(0);
+    
+    public BarnPoller(ObjectMapper objectMapper, @Value("${polling.timeout-ms:2000}") int timeoutMs) {
+        this.objectMapper = objectMapper;
+        // A barn that doesn't answer counts as overloaded - don't wait on it forever
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        this.restTemplate = new RestTemplate(requestFactory);
+    }
+    
+    @PostConstruct
+    public void start() {
+        interval = new AdaptiveInterval(
+            pollingIntervalMs, minIntervalMs, maxIntervalMs, backoffMultiplier, jitter, unstableWindowMs);
+        scheduler.schedule(this::pollAndReschedule, 0, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * Whatever happens to this poll, there is always a next one - an Error
+     * thrown out of a scheduled task would otherwise vanish into its
+     * Future, and polling would just stop.
+     */
+    private void pollAndReschedule() {
+        long delayMs = -1;
+        try {
+            delayMs = checkBarn();
+        } catch (RuntimeException e) {
+            log.warn("Poll went wrong: {}", e.getMessage());
+        } catch (Error e) {
+            log.error("Poll failed badly, polling on regardless", e);
+            throw e;
+        } finally {
+            if (delayMs < 0) {
+                delayMs = interval.onError();
+            }
+            if (!scheduler.isShutdown()) {
+                scheduler.schedule(this::pollAndReschedule, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Poll once.
+     * 
+     * @return milliseconds until the next poll
+     */
+    public long checkBarn() {
         totalPolls.incrementAndGet();
         String url = barnServiceUrl + barnEndpoint;
         
+        long requestStart = System.nanoTime();
         try {
-            BarnStatus status = restTemplate.getForObject(url, BarnStatus.class);
+            HttpHeaders headers = new HttpHeaders();
+            if (lastEtag != null) {
+                headers.setIfNoneMatch(lastEtag);
+            }
+            ResponseEntity<byte[]> response =
+                restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+            roundTripMicros.record((System.nanoTime() - requestStart) / 1000);
             successfulPolls.incrementAndGet();
             
-            if (status == null) {
+            if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && lastStatus != null) {
+                // Same as last time - nothing to download, nothing to parse
+                notModifiedPolls.incrementAndGet();
+                bytesSaved.addAndGet(lastBodyBytes);
+                log.info("📋 Polling barn... Status: {} (not modified)", lastStatus.status());
+                return interval.onSuccess(false, System.currentTimeMillis());
+            }
+            
+            byte[] body = response.getBody();
+            if (body == null) {
                 log.warn("Received null status from barn");
-                return;
+                return interval.onError();
             }
             
+            long parseStart = System.nanoTime();
+            BarnStatus status = objectMapper.readValue(body, BarnStatus.class);
+            parseNanos.addAndGet(System.nanoTime() - parseStart);
+            bodiesParsed.incrementAndGet();
+            bytesDownloaded.addAndGet(body.length);
+            
+            BarnStatus previous = lastStatus;
+            boolean changed = previous != null && !previous.status().equals(status.status());
+            lastEtag = response.getHeaders().getETag();
+            lastStatus = status;
+            lastBodyBytes = body.length;
+            
             log.info("📋 Polling barn... Status: {}", status.status());
             
             if (status.isOnFire() && fireDetectedAt.get() == null) {
@@ -74,6 +217,7 @@ public class BarnPoller {
                 
                 Duration responseTime = Duration.between(status.fireStartedAt(), detected);
                 totalResponseTimeMs.addAndGet(responseTime.toMillis());
+                detectionMs.record(responseTime.toMillis());
                 
                 log.error("═══════════════════════════════════════════════════");
                 log.error("🔥🔥🔥 FIRE DETECTED! 🔥🔥🔥");
@@ -87,7 +231,7 @@ public class BarnPoller {
                 log.error("The barn burned for {} seconds before we noticed.", 
                     responseTime.toSeconds());
                 log.error("With a polling interval of {} ms, this is expected.", 
-                    pollingIntervalMs);
+                    interval.currentMs());
                 log.error("");
                 
             } else if (!status.isOnFire() && fireDetectedAt.get() != null) {
@@ -95,20 +239,68 @@ public class BarnPoller {
                 fireDetectedAt.set(null);
                 log.info("✓ Fire has been extinguished. Resuming normal monitoring.");
             }
+            return interval.onSuccess(changed, System.currentTimeMillis());
             
-        } catch (Exception e) {
+        } catch (HttpStatusCodeException e) {
+            // The barn did answer, just not with a status
+            roundTripMicros.record((System.nanoTime() - requestStart) / 1000);
             failedPolls.incrementAndGet();
             log.warn("❌ Failed to reach barn: {}", e.getMessage());
             
-            if (e.getMessage() != null && e.getMessage().contains("503")) {
+            if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE
+                    || e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                long delayMs = interval.onOverload(retryAfterMs(e.getResponseHeaders()));
                 log.warn("The barn service is overwhelmed by our polling.");
-                log.warn("This is what happens with fragile legacy systems.");
+                log.warn("This is what happens with fragile legacy systems. Backing off for {} ms.", delayMs);
+                return delayMs;
+            }
+            return interval.onError();
+            
+        } catch (ResourceAccessException e) {
+            // A timeout is the slowest answer of all; leaving it out would flatter the p99
+            roundTripMicros.record((System.nanoTime() - requestStart) / 1000);
+            failedPolls.incrementAndGet();
+            log.warn("❌ Failed to reach barn: {}", e.getMessage());
+            if (e.getCause() instanceof SocketTimeoutException) {
+                // Too slow to answer: treat it like a 503
+                return interval.onOverload(0);
+            }
+            // Couldn't connect at all - that's not the barn being busy
+            return interval.onError();
+            
+        } catch (Exception e) {
+            failedPolls.incrementAndGet();
+            log.warn("❌ Failed to reach barn: {}", e.getMessage());
+            return interval.onError();
+        }
+    }
+    
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     */
+    private static long retryAfterMs(HttpHeaders headers) {
+        String value = headers != null ? headers.getFirst(HttpHeaders.RETRY_AFTER) : null;
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(Instant.now(), at.toInstant()).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
             }
         }
     }
     
     // Expose statistics
     public PollingStats getStats() {
+        long effective = interval.currentMs();
+        double avgParseMicros = bodiesParsed.get() > 0
+            ? parseNanos.get() / 1000.0 / bodiesParsed.get()
+            : 0;
         return new PollingStats(
             totalPolls.get(),
             successfulPolls.get(),
@@ -117,17 +309,104 @@ public class BarnPoller {
             firesDetected.get() > 0 
                 ? totalResponseTimeMs.get() / firesDetected.get() 
                 : 0,
-            pollingIntervalMs
+            pollingIntervalMs,
+            notModifiedPolls.get(),
+            bytesDownloaded.get(),
+            bytesSaved.get(),
+            avgParseMicros,
+            // Every 304 skipped one parse
+            (long) (avgParseMicros * notModifiedPolls.get()),
+            effective,
+            interval.lastDelayMs(),
+            interval.isUnstable(System.currentTimeMillis()),
+            interval.backoffs(),
+            interval.retryAftersHonoured(),
+            // A fire starts at a random moment between two polls
+            effective / 2,
+            effective,
+            windowed(roundTripMicros),
+            windowed(detectionMs)
         );
     }
     
+    /**
+     * Minute by minute, for the last hour.
+     */
+    public PollingTimeline getTimeline() {
+        return new PollingTimeline(roundTripMicros.timeline(), detectionMs.timeline());
+    }
+    
+    void writeMetrics(PrometheusWriter metrics) {
+        metrics
+            .counter("firehouse_polls_total", "Polls sent to the barn", totalPolls.get())
+            .counter("firehouse_polls_failed_total", "Polls that got no status back", failedPolls.get())
+            .counter("firehouse_polls_not_modified_total", "Polls answered with 304 Not Modified", notModifiedPolls.get())
+            .counter("firehouse_fires_detected_total", "Fires noticed by polling", firesDetected.get())
+            .gauge("firehouse_polling_interval_seconds", "Current (adaptive) polling interval",
+                interval.currentMs() / 1000.0)
+            .summary("firehouse_poll_round_trip_seconds", "Time for the barn to answer a poll, last 5 minutes",
+                roundTripMicros, 5 * MINUTE_MS, 1e-6)
+            .summary("firehouse_fire_detection_seconds", "How long fires burned before polling noticed, last hour",
+                detectionMs, 60 * MINUTE_MS, 1e-3);
+    }
+    
+    private static WindowedLatency windowed(RollingLatency latency) {
+        return new WindowedLatency(
+            latency.summary(MINUTE_MS),
+            latency.summary(5 * MINUTE_MS),
+            latency.summary(60 * MINUTE_MS));
+    }
+    
+    /**
+     * @param notModifiedPolls polls answered with 304 - no body, no parsing
+     * @param bytesSaved body bytes we didn't have to download thanks to 304s
+     * @param parseMicrosSaved estimated parse time skipped thanks to 304s
+     * @param effectiveIntervalMs the interval we're polling at right now, before jitter
+     * @param lastDelayMs the actual wait before the next poll (with jitter or Retry-After)
+     * @param unstable whether the barn changed status recently, so we poll at the floor
+     * @param backoffs how many times a 503 or timeout made us slow down
+     * @param retryAftersHonoured how many times the barn's Retry-After pushed the next poll later
+     * @param expectedDetectionLatencyMs on average, how long a fire burns before we notice at this interval
+     * @param worstCaseDetectionLatencyMs the longest a fire can burn before we notice at this interval
+     * @param roundTripMicros how long the barn took to answer a poll
+     * @param detectionLatencyMs how long fires actually burned before we noticed
+     */
     public record PollingStats(
         int totalPolls,
         int successfulPolls,
         int failedPolls,
         int firesDetected,
         long avgResponseTimeMs,
-        int pollingIntervalMs
+        int pollingIntervalMs,
+        int notModifiedPolls,
+        long bytesDownloaded,
+        long bytesSaved,
+        double avgParseMicros,
+        long parseMicrosSaved,
+        long effectiveIntervalMs,
+        long lastDelayMs,
+        boolean unstable,
+        long backoffs,
+        long retryAftersHonoured,
+        long expectedDetectionLatencyMs,
+        long worstCaseDetectionLatencyMs,
+        WindowedLatency roundTripMicros,
+        WindowedLatency detectionLatencyMs
+    ) {}
+    
+    /**
+     * Percentiles (p50, p95, p99, max) over the last minute, five minutes
+     * and hour.
+     */
+    public record WindowedLatency(
+        LatencyHistogram.Summary lastMinute,
+        LatencyHistogram.Summary lastFiveMinutes,
+        LatencyHistogram.Summary lastHour
+    ) {}
+    
+    public record PollingTimeline(
+        List<RollingLatency.Bucket> roundTripMicros,
+        List<RollingLatency.Bucket> detectionLatencyMs
     ) {}
     
     public record BarnStatus(String status, Instant fireStartedAt) {
@@ -0,0 +1,91 @@
+package com.codingbarn.firehouse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * Look at (and add to) the barns the {@link FleetPoller} is watching.
+ */
+@RestController
+@RequestMapping("/fleet")
+public class FleetController {
+    
+    private final FleetPoller fleet;
+    
+    public FleetController(FleetPoller fleet) {
+        this.fleet = fleet;
+    }
+    
+    @GetMapping("/stats")
+    public FleetPoller.FleetStats getStats() {
+        return fleet.getStats();
+    }
+    
+    @GetMapping("/barns")
+    public List<FleetPoller.BarnStats> list(
+            @RequestParam(defaultValue = "false") boolean burning,
+            @RequestParam(defaultValue = "100") int limit) {
+        if (limit < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit can't be negative");
+        }
+        return fleet.list(burning, limit);
+    }
+    
+    @GetMapping("/barns/{id}")
+    public FleetPoller.BarnStats get(@PathVariable String id) {
+        FleetPoller.BarnStats stats = fleet.get(id);
+        if (stats == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Not polling " + id);
+        }
+        return stats;
+    }
+    
+    /**
+     * Start polling a barn. {@code intervalMs} and {@code timeoutMs} are
+     * optional; without them the fleet defaults apply.
+     */
+    @PostMapping("/barns")
+    public ResponseEntity<String> add(@RequestBody NewBarn barn) {
+        if (barn.id() == null || barn.statusUrl() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "id and statusUrl are required");
+        }
+        requirePollableUrl(barn.statusUrl());
+        boolean isNew = fleet.add(barn.id(), barn.statusUrl(),
+            barn.intervalMs() != null ? barn.intervalMs() : 0,
+            barn.timeoutMs() != null ? barn.timeoutMs() : 0);
+        return isNew
+            ? ResponseEntity.status(HttpStatus.CREATED).body("Polling " + barn.id())
+            : ResponseEntity.ok("Updated " + barn.id());
+    }
+    
+    @DeleteMapping("/barns/{id}")
+    public ResponseEntity<String> remove(@PathVariable String id) {
+        return fleet.remove(id)
+            ? ResponseEntity.ok("Stopped polling " + id)
+            : ResponseEntity.notFound().build();
+    }
+    
+    /**
+     * Caught here rather than as a 500 now (or a failed poll forever after).
+     */
+    private static void requirePollableUrl(String statusUrl) {
+        try {
+            URI uri = new URI(statusUrl);
+            if (("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))
+                    && uri.getHost() != null) {
+                return;
+            }
+        } catch (URISyntaxException e) {
+            // Same answer as a URL we can't poll
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "statusUrl must be an http(s) URL, got: " + statusUrl);
+    }
+    
+    public record NewBarn(String id, String statusUrl, Long intervalMs, Long timeoutMs) {}
+}
@@ -0,0 +1,474 @@
+package com.codingbarn.firehouse;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls a whole county of barns from one firehouse.
+ * 
+ * {@link BarnPoller} watches one barn on one thread; a slow answer holds
+ * up everything behind it. Here every barn has its own schedule on a
+ * {@link TimingWheel}, and every poll runs on its own virtual thread, so
+ * ten thousand barns every ten seconds is a thousand small timers and a
+ * thousand blocking requests a second - cheap for both.
+ * 
+ * Each barn has its own interval (adaptive, like the single poller's - see
+ * {@link AdaptiveInterval}), its own timeout, its own ETag and its own
+ * stats. A barn is never polled twice at once: the next poll is only
+ * scheduled when the last one is done. A poll that comes back after its
+ * barn was removed or replaced is ignored, so it can't throw the count
+ * of burning barns off.
+ * 
+ * Barns come from config ({@code fleet.barns=id=statusUrl,...}), from
+ * the barn service's index ({@code fleet.discovery-url}, checked again
+ * now and then for new barns), or from POST /fleet/barns.
+ */
+@Component
+public class FleetPoller {
+    
+    private static final Logger log = LoggerFactory.getLogger(FleetPoller.class);
+    
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final TimingWheel wheel;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    
+    private final String discoveryUrl;
+    private final String statusUrlTemplate;
+    private final long discoveryIntervalMs;
+    private final long defaultIntervalMs;
+    private final long defaultTimeoutMs;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final double backoffMultiplier;
+    private final double jitter;
+    private final long unstableWindowMs;
+    
+    private final Map<String, PolledBarn> barns = new ConcurrentHashMap<>();
+    private final AtomicInteger discovered = new AtomicInteger(0);
+    private final AtomicLong totalPolls = new AtomicLong(0);
+    private final AtomicLong failedPolls = new AtomicLong(0);
+    private final AtomicInteger burning = new AtomicInteger(0);
+    private volatile long startedAtMillis = 0;
+    
+    public FleetPoller(
+            ObjectMapper objectMapper,
+            @Value("${fleet.barns:}") List<String> configured,
+            @Value("${fleet.discovery-url:}") String discoveryUrl,
+            @Value("${fleet.status-url-template:http://localhost:8080/barn/{id}/status}") String statusUrlTemplate,
+            @Value("${fleet.discovery-interval-ms:60000}") long discoveryIntervalMs,
+            @Value("${fleet.interval-ms:10000}") long defaultIntervalMs,
+            @Value("${fleet.timeout-ms:2000}") long defaultTimeoutMs,
+            @Value("${fleet.max-in-flight:2000}") int maxInFlight,
+            @Value("${fleet.wheel-tick-ms:10}") long tickMs,
+            @Value("${fleet.wheel-size:4096}") int wheelSize,
+            @Value("${polling.min-interval-ms:2000}") long minIntervalMs,
+            @Value("${polling.max-interval-ms:120000}") long maxIntervalMs,
+            @Value("${polling.backoff-multiplier:2.0}") double backoffMultiplier,
+            @Value("${polling.jitter:0.1}") double jitter,
+            @Value("${polling.unstable-window-ms:300000}") long unstableWindowMs) {
+        this.objectMapper = objectMapper;
+        this.discoveryUrl = discoveryUrl;
+        this.statusUrlTemplate = statusUrlTemplate;
+        this.discoveryIntervalMs = discoveryIntervalMs;
+        this.defaultIntervalMs = defaultIntervalMs;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.backoffMultiplier = backoffMultiplier;
+        this.jitter = jitter;
+        this.unstableWindowMs = unstableWindowMs;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        // Plain HTTP/1.1: no h2c upgrade dance on every new connection
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(defaultTimeoutMs))
+            .executor(executor)
+            .build();
+        this.wheel = new TimingWheel(tickMs, wheelSize, executor, "fleet-wheel");
+        
+        for (String entry : configured) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("fleet.barns entries look like id=statusUrl, got: " + entry);
+            }
+            put(entry.substring(0, separator).strip(), entry.substring(separator + 1).strip(), 0, 0);
+        }
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        startedAtMillis = System.currentTimeMillis();
+        wheel.start();
+        for (PolledBarn barn : barns.values()) {
+            scheduleFirst(barn);
+        }
+        if (!discoveryUrl.isBlank()) {
+            executor.execute(this::discover);
+        }
+        if (!barns.isEmpty() || !discoveryUrl.isBlank()) {
+            log.info("🚒 Fleet poller started with {} barns", barns.size());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Start polling a barn, or change how an existing one is polled.
+     * 
+     * @param intervalMs how often to poll it (0 = fleet.interval-ms)
+     * @param timeoutMs how long to wait for an answer (0 = fleet.timeout-ms)
+     * @return true if the barn is new
+     */
+    public boolean add(String id, String statusUrl, long intervalMs, long timeoutMs) {
+        return put(id, statusUrl, intervalMs, timeoutMs);
+    }
+    
+    public boolean remove(String id) {
+        PolledBarn barn = barns.remove(id);
+        if (barn == null) {
+            return false;
+        }
+        retire(barn);
+        return true;
+    }
+    
+    private boolean put(String id, String statusUrl, long intervalMs, long timeoutMs) {
+        PolledBarn barn = new PolledBarn(id, URI.create(statusUrl),
+            new AdaptiveInterval(intervalMs > 0 ? intervalMs : defaultIntervalMs,
+                minIntervalMs, maxIntervalMs, backoffMultiplier, jitter, unstableWindowMs),
+            Duration.ofMillis(timeoutMs > 0 ? timeoutMs : defaultTimeoutMs));
+        PolledBarn previous = barns.put(id, barn);
+        if (previous != null) {
+            // Its pending timer will find it's been replaced and stop
+            retire(previous);
+        }
+        if (startedAtMillis > 0) {
+            scheduleFirst(barn);
+        }
+        return previous == null;
+    }
+    
+    /**
+     * Take a barn out of the count. Locked against {@link #observe} on the
+     * same barn, so a poll in flight either counts before this or not at all.
+     */
+    private void retire(PolledBarn barn) {
+        synchronized (barn) {
+            barn.removed = true;
+            if (barn.onFire) {
+                burning.decrementAndGet();
+            }
+        }
+    }
+    
+    public BarnStats get(String id) {
+        PolledBarn barn = barns.get(id);
+        return barn != null ? barn.stats() : null;
+    }
+    
+    public List<BarnStats> list(boolean burningOnly, int limit) {
+        return barns.values().stream()
+            .filter(barn -> !burningOnly || barn.onFire)
+            .limit(limit)
+            .map(PolledBarn::stats)
+            .toList();
+    }
+    
+    public FleetStats getStats() {
+        long elapsedMs = startedAtMillis > 0 ? System.currentTimeMillis() - startedAtMillis : 0;
+        long polls = totalPolls.get();
+        return new FleetStats(
+            barns.size(),
+            burning.get(),
+            discovered.get(),
+            polls,
+            failedPolls.get(),
+            elapsedMs > 0 ? polls * 1000.0 / elapsedMs : 0,
+            maxInFlight - inFlight.availablePermits(),
+            wheel.pending(),
+            wheel.avgLagMicros(),
+            wheel.maxLagMicros()
+        );
+    }
+    
+    /**
+     * Spread the first polls over one interval, so a thousand barns added
+     * at once don't all go off in the same tick.
+     */
+    private void scheduleFirst(PolledBarn barn) {
+        long offset = ThreadLocalRandom.current().nextLong(Math.max(1, barn.interval.currentMs()));
+        wheel.schedule(offset, () -> poll(barn));
+    }
+    
+    private void poll(PolledBarn barn) {
+        if (barn.removed) {
+            return;
+        }
+        long delayMs;
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            delayMs = pollOnce(barn);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            inFlight.release();
+        }
+        if (!barn.removed) {
+            wheel.schedule(delayMs, () -> poll(barn));
+        }
+    }
+    
+    /**
+     * @return milliseconds until this barn's next poll
+     */
+    private long pollOnce(PolledBarn barn) throws InterruptedException {
+        totalPolls.incrementAndGet();
+        barn.polls.incrementAndGet();
+        HttpRequest.Builder request = HttpRequest.newBuilder(barn.statusUrl).timeout(barn.timeout);
+        if (barn.etag != null) {
+            request.header("If-None-Match", barn.etag);
+        }
+        
+        long start = System.nanoTime();
+        try {
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            long now = System.currentTimeMillis();
+            barn.lastPolledAt = now;
+            barn.recordLatency(System.nanoTime() - start);
+            
+            int code = response.statusCode();
+            if (code == 304) {
+                barn.notModified.incrementAndGet();
+                return barn.interval.onSuccess(false, now);
+            }
+            if (code == 200) {
+                barn.etag = response.headers().firstValue("ETag").orElse(null);
+                BarnStatus status = objectMapper.readValue(response.body(), BarnStatus.class);
+                return barn.interval.onSuccess(observe(barn, status, now), now);
+            }
+            
+            failed(barn);
+            log.debug("Barn {} answered {}", barn.id, code);
+            if (code == 503 || code == 429) {
+                long retryAfterSeconds = response.headers().firstValueAsLong("Retry-After").orElse(0);
+                return barn.interval.onOverload(retryAfterSeconds * 1000);
+            }
+            return barn.interval.onError();
+            
+        } catch (HttpTimeoutException e) {
+            failed(barn);
+            log.debug("Barn {} didn't answer within {} ms", barn.id, barn.timeout.toMillis());
+            return barn.interval.onOverload(0);
+        } catch (IOException e) {
+            failed(barn);
+            log.debug("Could not poll barn {}: {}", barn.id, e.getMessage());
+            return barn.interval.onError();
+        }
+    }
+    
+    /**
+     * @return whether the barn's status changed
+     */
+    private boolean observe(PolledBarn barn, BarnStatus status, long now) {
+        synchronized (barn) {
+            if (barn.removed) {
+                // Removed or replaced while we were asking; not ours to count
+                return false;
+            }
+            return observeLocked(barn, status, now);
+        }
+    }
+    
+    private boolean observeLocked(PolledBarn barn, BarnStatus status, long now) {
+        boolean wasOnFire = barn.onFire;
+        String previous = barn.lastStatus;
+        barn.lastStatus = status.status();
+        barn.onFire = status.isOnFire();
+        
+        if (status.isOnFire() && !wasOnFire) {
+            burning.incrementAndGet();
+            barn.firesDetected.incrementAndGet();
+            if (status.fireStartedAt() != null) {
+                barn.lastDetectionDelayMs = now - status.fireStartedAt().toEpochMilli();
+            }
+            log.error("🔥 FIRE DETECTED in {} - it burned {} ms before we noticed", barn.id, barn.lastDetectionDelayMs);
+        } else if (!status.isOnFire() && wasOnFire) {
+            burning.decrementAndGet();
+            log.info("✓ Fire in {} has been extinguished", barn.id);
+        }
+        return previous != null && !previous.equals(status.status());
+    }
+    
+    private void failed(PolledBarn barn) {
+        failedPolls.incrementAndGet();
+        barn.failures.incrementAndGet();
+    }
+    
+    /**
+     * Ask the barn service which barns it has. Barn ids are only ever
+     * appended to its index, so each time we only ask for the new ones.
+     */
+    private void discover() {
+        try {
+            String separator = discoveryUrl.contains("?") ? "&" : "?";
+            HttpRequest request = HttpRequest.newBuilder(URI.create(discoveryUrl + separator + "from=" + discovered.get()))
+                .timeout(Duration.ofMillis(defaultTimeoutMs * 5))
+                .build();
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() == 200) {
+                Collection<String> ids = objectMapper.readValue(response.body(), new TypeReference<List<String>>() {});
+                for (String id : ids) {
+                    if (!barns.containsKey(id)) {
+                        add(id, statusUrlTemplate.replace("{id}", id), 0, 0);
+                    }
+                }
+                discovered.addAndGet(ids.size());
+                if (!ids.isEmpty()) {
+                    log.info("🔎 Discovered {} new barns ({} in total)", ids.size(), barns.size());
+                }
+            } else {
+                log.warn("Barn discovery answered {}", response.statusCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.warn("Barn discovery failed: {}", e.getMessage());
+        }
+        wheel.schedule(discoveryIntervalMs, this::discover);
+    }
+    
+    private static final class PolledBarn {
+        private final String id;
+        private final URI statusUrl;
+        private final AdaptiveInterval interval;
+        private final Duration timeout;
+        private final AtomicLong polls = new AtomicLong(0);
+        private final AtomicLong notModified = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+        private final AtomicLong firesDetected = new AtomicLong(0);
+        private final AtomicLong latencyNanos = new AtomicLong(0);
+        private final AtomicLong answered = new AtomicLong(0);
+        private volatile String etag;
+        private volatile String lastStatus;
+        private volatile boolean onFire = false;
+        private volatile long lastPolledAt = 0;
+        private volatile long lastLatencyNanos = 0;
+        private volatile long lastDetectionDelayMs = 0;
+        private volatile boolean removed = false;
+        
+        private PolledBarn(String id, URI statusUrl, AdaptiveInterval interval, Duration timeout) {
+            this.id = id;
+            this.statusUrl = statusUrl;
+            this.interval = interval;
+            this.timeout = timeout;
+        }
+        
+        void recordLatency(long nanos) {
+            lastLatencyNanos = nanos;
+            latencyNanos.addAndGet(nanos);
+            answered.incrementAndGet();
+        }
+        
+        BarnStats stats() {
+            long answers = answered.get();
+            return new BarnStats(
+                id,
+                statusUrl.toString(),
+                lastStatus,
+                lastPolledAt > 0 ? Instant.ofEpochMilli(lastPolledAt) : null,
+                interval.currentMs(),
+                timeout.toMillis(),
+                polls.get(),
+                notModified.get(),
+                failures.get(),
+                lastLatencyNanos / 1000,
+                answers > 0 ? latencyNanos.get() / answers / 1000 : 0,
+                firesDetected.get(),
+                lastDetectionDelayMs
+            );
+        }
+    }
+    
+    /**
+     * @param intervalMs this barn's current (adaptive) interval
+     * @param lastDetectionDelayMs how long the last fire burned before we noticed
+     */
+    public record BarnStats(
+        String id,
+        String statusUrl,
+        String status,
+        Instant lastPolledAt,
+        long intervalMs,
+        long timeoutMs,
+        long polls,
+        long notModified,
+        long failures,
+        long lastLatencyMicros,
+        long avgLatencyMicros,
+        long firesDetected,
+        long lastDetectionDelayMs
+    ) {}
+    
+    /**
+     * @param discovered barn ids read from the discovery URL so far
+     * @param inFlight polls waiting for an answer right now
+     * @param pendingTimers polls scheduled on the timing wheel
+     * @param avgTimerLagMicros how late, on average, a poll starts after it was due
+     */
+    public record FleetStats(
+        int barns,
+        int burning,
+        int discovered,
+        long totalPolls,
+        long failedPolls,
+        double pollsPerSecond,
+        int inFlight,
+        long pendingTimers,
+        long avgTimerLagMicros,
+        long maxTimerLagMicros
+    ) {}
+}
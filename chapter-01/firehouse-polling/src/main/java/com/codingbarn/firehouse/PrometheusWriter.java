@@ -0,0 +1,64 @@
+package com.codingbarn.firehouse;
+
+/**
+ * Just enough of the Prometheus text format to publish our stats.
+ * 
+ * Latencies go out as summaries: the quantiles over a recent window, plus
+ * the running count and sum since startup that Prometheus uses to work
+ * out rates and averages over whatever window it likes.
+ */
+class PrometheusWriter {
+    
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    
+    private final StringBuilder out = new StringBuilder(4096);
+    
+    PrometheusWriter counter(String name, String help, double value) {
+        header(name, help, "counter");
+        sample(name, "", value);
+        return this;
+    }
+    
+    PrometheusWriter gauge(String name, String help, double value) {
+        header(name, help, "gauge");
+        sample(name, "", value);
+        return this;
+    }
+    
+    /**
+     * @param scale multiply recorded values by this to get the unit in the
+     *              metric's name (e.g. 1e-6 for microseconds to seconds)
+     * @param window the window the quantiles cover, e.g. 300_000 for 5m
+     */
+    PrometheusWriter summary(String name, String help, RollingLatency latency, long window, double scale) {
+        LatencyHistogram.Summary summary = latency.summary(window);
+        header(name, help, "summary");
+        sample(name, "{quantile=\"0.5\"}", summary.p50() * scale);
+        sample(name, "{quantile=\"0.95\"}", summary.p95() * scale);
+        sample(name, "{quantile=\"0.99\"}", summary.p99() * scale);
+        sample(name, "{quantile=\"1\"}", summary.max() * scale);
+        sample(name + "_sum", "", latency.totalSum() * scale);
+        sample(name + "_count", "", latency.totalCount());
+        return this;
+    }
+    
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+    
+    private void header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    
+    private void sample(String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,98 @@
+package com.codingbarn.firehouse;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram over a sliding window of time.
+ * 
+ * The window is a ring of slots (one per minute, by default an hour's
+ * worth), each with its own {@link LatencyHistogram}, reused round-robin.
+ * A slot remembers which minute it belongs to and is reset the first time
+ * the clock comes back around to it, so recording never allocates.
+ * 
+ * Reading merges the slots that fall inside the requested window into a
+ * fresh histogram. That allocates, but only when someone asks for stats.
+ * 
+ * It also keeps a running count and sum since startup, which is what
+ * Prometheus wants: it works out its own windows from those.
+ */
+class RollingLatency {
+    
+    private final long slotMs;
+    private final LatencyHistogram[] slots;
+    private final AtomicLongArray intervals;
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong totalSum = new AtomicLong(0);
+    
+    RollingLatency(long slotMs, int slotCount) {
+        this.slotMs = slotMs;
+        this.slots = new LatencyHistogram[slotCount];
+        this.intervals = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new LatencyHistogram();
+            intervals.set(i, -1);
+        }
+    }
+    
+    void record(long value) {
+        long interval = System.currentTimeMillis() / slotMs;
+        int slot = (int) (interval % slots.length);
+        long slotInterval = intervals.get(slot);
+        if (slotInterval != interval && intervals.compareAndSet(slot, slotInterval, interval)) {
+            // A recorder racing with this reset may lose a value; close enough for stats
+            slots[slot].reset();
+        }
+        slots[slot].record(value);
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(Math.max(0, value));
+    }
+    
+    /**
+     * Percentiles over the most recent {@code windowMs}, including the
+     * current (still filling) slot.
+     */
+    LatencyHistogram.Summary summary(long windowMs) {
+        long now = System.currentTimeMillis() / slotMs;
+        long windowSlots = Math.min(slots.length, Math.max(1, windowMs / slotMs));
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int i = 0; i < slots.length; i++) {
+            long age = now - intervals.get(i);
+            if (age >= 0 && age < windowSlots) {
+                merged.add(slots[i]);
+            }
+        }
+        return merged.summary();
+    }
+    
+    /**
+     * One summary per slot that has anything in it, oldest first.
+     */
+    List<Bucket> timeline() {
+        long now = System.currentTimeMillis() / slotMs;
+        List<Bucket> buckets = new ArrayList<>();
+        for (long interval = now - slots.length + 1; interval <= now; interval++) {
+            int slot = (int) (interval % slots.length);
+            if (intervals.get(slot) == interval && slots[slot].count() > 0) {
+                buckets.add(new Bucket(Instant.ofEpochMilli(interval * slotMs), slots[slot].summary()));
+            }
+        }
+        return buckets;
+    }
+    
+    long totalCount() {
+        return totalCount.get();
+    }
+    
+    long totalSum() {
+        return totalSum.get();
+    }
+    
+    /**
+     * @param start the beginning of the slot's minute
+     */
+    public record Bucket(Instant start, LatencyHistogram.Summary latency) {}
+}
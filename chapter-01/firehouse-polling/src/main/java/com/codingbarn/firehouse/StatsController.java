@@ -19,4 +19,19 @@ public class StatsController {
     public BarnPoller.PollingStats getStats() {
         return barnPoller.getStats();
     }
+    
+    @GetMapping("/stats/timeline")
+    public BarnPoller.PollingTimeline getTimeline() {
+        return barnPoller.getTimeline();
+    }
+    
+    /**
+     * The same numbers in Prometheus text format, for scraping.
+     */
+    @GetMapping(value = "/stats/prometheus", produces = PrometheusWriter.CONTENT_TYPE)
+    public String getPrometheus() {
+        PrometheusWriter metrics = new PrometheusWriter();
+        barnPoller.writeMetrics(metrics);
+        return metrics.toString();
+    }
 }
@@ -0,0 +1,171 @@
+package com.codingbarn.firehouse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: cheap timers for lots of things that happen
+ * every few seconds.
+ * 
+ * A ScheduledExecutorService keeps its timers in a heap, so with ten
+ * thousand barns every schedule and every expiry pays O(log n) under a
+ * lock. A wheel is a ring of buckets, one per tick (10 ms by default). A
+ * timer is dropped into the bucket its deadline hashes to - O(1) - and
+ * each tick the wheel thread only looks at one bucket. Timers further
+ * away than one turn of the wheel just wait there for a few more laps.
+ * 
+ * The price is resolution: a timer fires up to one tick late. For polls
+ * that happen every ten seconds, nobody will notice.
+ * 
+ * Only the wheel thread touches the buckets. New timers are handed over
+ * through a lock-free queue, and expired tasks are run on the executor,
+ * never on the wheel thread itself.
+ */
+class TimingWheel {
+    
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+    
+    private final long tickNanos;
+    private final int mask;
+    private final Executor executor;
+    private final Thread thread;
+    
+    @SuppressWarnings("unchecked")
+    private final Queue<Timer>[] buckets;
+    private final Queue<Timer> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong(0);
+    private final AtomicLong fired = new AtomicLong(0);
+    private final AtomicLong totalLagNanos = new AtomicLong(0);
+    private volatile long maxLagNanos = 0;
+    
+    private long startNanos;
+    private long tick = 0;
+    private volatile boolean running = false;
+    
+    /**
+     * @param wheelSize number of buckets; rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, int wheelSize, Executor executor, String name) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = (Queue<Timer>[]) new Queue<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.executor = executor;
+        this.thread = Thread.ofPlatform().name(name).daemon().unstarted(this::run);
+    }
+    
+    void start() {
+        startNanos = System.nanoTime();
+        running = true;
+        thread.start();
+    }
+    
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+    
+    /**
+     * Run {@code task} on the executor in about {@code delayMs}.
+     */
+    void schedule(long delayMs, Runnable task) {
+        pending.incrementAndGet();
+        incoming.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)), task));
+    }
+    
+    long pending() {
+        return pending.get();
+    }
+    
+    long fired() {
+        return fired.get();
+    }
+    
+    /**
+     * How late timers fire on average, after their deadline.
+     */
+    long avgLagMicros() {
+        long count = fired.get();
+        return count > 0 ? totalLagNanos.get() / count / 1000 : 0;
+    }
+    
+    long maxLagMicros() {
+        return maxLagNanos / 1000;
+    }
+    
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(sleep);
+                if (!running) {
+                    return;
+                }
+            }
+            
+            transferIncoming();
+            expire(buckets[(int) (tick & mask)], System.nanoTime());
+            tick++;
+        }
+    }
+    
+    private void transferIncoming() {
+        Timer timer;
+        while ((timer = incoming.poll()) != null) {
+            long ticks = (timer.deadlineNanos - startNanos) / tickNanos;
+            // Already due (or due this tick): put it in the current bucket
+            long target = Math.max(ticks, tick);
+            timer.rounds = (target - tick) / buckets.length;
+            buckets[(int) (target & mask)].add(timer);
+        }
+    }
+    
+    private void expire(Queue<Timer> bucket, long now) {
+        Iterator<Timer> timers = bucket.iterator();
+        while (timers.hasNext()) {
+            Timer timer = timers.next();
+            if (timer.rounds > 0) {
+                timer.rounds--;
+                continue;
+            }
+            timers.remove();
+            pending.decrementAndGet();
+            fired.incrementAndGet();
+            long lag = Math.max(0, now - timer.deadlineNanos);
+            totalLagNanos.addAndGet(lag);
+            if (lag > maxLagNanos) {
+                maxLagNanos = lag;
+            }
+            try {
+                executor.execute(timer.task);
+            } catch (RuntimeException e) {
+                log.warn("Timer task rejected: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private static final class Timer {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long rounds;
+        
+        private Timer(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+    }
+}
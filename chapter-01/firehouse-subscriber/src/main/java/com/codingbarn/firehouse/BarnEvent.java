@@ -4,5 +4,7 @@ import java.time.Instant;
 
 /**
  * DTO matching the barn service's event structure.
+ * The eventId is the same on every retry of an event (and null from
+ * barns that don't send one).
  */
-public record BarnEvent(String eventType, Instant timestamp, String barnId) {}
+public record BarnEvent(String eventId, String eventType, Instant timestamp, String barnId) {}
@@ -1,15 +1,23 @@
 package com.codingbarn.firehouse;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Webhook endpoint for receiving barn events.
@@ -17,17 +25,49 @@ import java.util.concurrent.atomic.AtomicLong;
  * This is the "smoke detector" end of the system.
  * When the barn catches fire, it calls this endpoint immediately.
  * No polling. No delay. Instant notification.
+ * 
+ * Many barns can call at once, so nothing on the way in takes a lock:
+ * counters are striped {@link LongAdder}s and the history is a
+ * {@link RecentEvents} ring.
+ * 
+ * A firehouse covering thousands of barns can take a burst in a few
+ * requests via {@code /events/batch}: a JSON array or NDJSON, read one
+ * event at a time straight off the request body.
+ * 
+ * The barn delivers at least once, so the same event can arrive twice.
+ * Events carry an id; {@link SeenEventIds} remembers recent ones, and a
+ * repeat is acknowledged without being counted again.
  */
 @RestController
 public class EventController {
     
     private static final Logger log = LoggerFactory.getLogger(EventController.class);
     
+    private static final String NDJSON = "application/x-ndjson";
+    
     // Statistics
-    private final AtomicInteger eventsReceived = new AtomicInteger(0);
-    private final AtomicInteger firesDetected = new AtomicInteger(0);
-    private final AtomicLong totalResponseTimeMs = new AtomicLong(0);
-    private final List<EventRecord> recentEvents = new ArrayList<>();
+    private final LongAdder eventsReceived = new LongAdder();
+    private final LongAdder firesDetected = new LongAdder();
+    private final LongAdder totalResponseTimeMs = new LongAdder();
+    private final LongAdder batchesReceived = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final RecentEvents<EventRecord> recentEvents;
+    private final SeenEventIds seenEventIds;
+    
+    private final HybridMonitor hybridMonitor;
+    private final ObjectReader eventReader;
+    
+    public EventController(
+            HybridMonitor hybridMonitor,
+            ObjectMapper objectMapper,
+            @Value("${events.history-capacity:100}") int historyCapacity,
+            @Value("${events.dedupe-capacity:65536}") int dedupeCapacity,
+            @Value("${events.dedupe-window-ms:600000}") long dedupeWindowMs) {
+        this.hybridMonitor = hybridMonitor;
+        this.eventReader = objectMapper.readerFor(BarnEvent.class);
+        this.recentEvents = new RecentEvents<>(historyCapacity);
+        this.seenEventIds = new SeenEventIds(dedupeCapacity, dedupeWindowMs);
+    }
     
     /**
      * Receive events from the barn.
@@ -37,23 +77,127 @@ public class EventController {
      */
     @PostMapping("/events")
     public String handleEvent(@RequestBody BarnEvent event) {
-        Instant receivedAt = Instant.now();
-        eventsReceived.incrementAndGet();
+        Processed processed;
+        try {
+            processed = process(event, Instant.now());
+        } catch (IllegalArgumentException e) {
+            // A 500 would have the barn retry it forever
+            log.warn("⚠️ Bad event from {}: {}", event.barnId(), e.getMessage());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bad event: " + e.getMessage());
+        }
+        return switch (processed.outcome()) {
+            // Just the barn saying it's still there
+            case HEARTBEAT -> "OK";
+            // Already handled; the barn just didn't hear us say so
+            case DUPLICATE -> "Duplicate";
+            case ACCEPTED -> "Event processed in " + processed.responseTimeMs() + "ms";
+        };
+    }
+    
+    /**
+     * Receive a whole burst of events in one request: a JSON array
+     * ({@code application/json}) or one event per line
+     * ({@code application/x-ndjson}). Either way the body is parsed
+     * incrementally, so each event is handled (and timed) as soon as it
+     * has been read, and a big batch never sits in memory all at once.
+     * 
+     * A bad event stops the batch with a 400; everything before it has
+     * already been processed.
+     */
+    @PostMapping(value = "/events/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public BatchResult handleBatch(HttpServletRequest request) throws IOException {
+        long started = System.nanoTime();
+        int accepted = 0;
+        int fires = 0;
+        int heartbeats = 0;
+        int duplicatesInBatch = 0;
+        // Can be negative (skewed barn clocks), so don't start at 0
+        long maxResponseTimeMs = Long.MIN_VALUE;
         
-        Duration responseTime = Duration.between(event.timestamp(), receivedAt);
+        batchesReceived.increment();
+        try (MappingIterator<BarnEvent> events = eventReader.readValues(request.getInputStream())) {
+            while (events.hasNextValue()) {
+                BarnEvent event = events.nextValue();
+                Processed processed = process(event, Instant.now());
+                if (processed.outcome() == Outcome.HEARTBEAT) {
+                    heartbeats++;
+                    continue;
+                }
+                if (processed.outcome() == Outcome.DUPLICATE) {
+                    duplicatesInBatch++;
+                    continue;
+                }
+                accepted++;
+                if ("FIRE".equals(event.eventType())) {
+                    fires++;
+                }
+                maxResponseTimeMs = Math.max(maxResponseTimeMs, processed.responseTimeMs());
+            }
+        } catch (JsonProcessingException e) {
+            log.warn("⚠️ Bad event in batch after {} accepted: {}", accepted, e.getOriginalMessage());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Bad event after " + accepted + " accepted: " + e.getOriginalMessage());
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ Bad event in batch after {} accepted: {}", accepted, e.getMessage());
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Bad event after " + accepted + " accepted: " + e.getMessage());
+        }
         
-        // Store for history
-        synchronized (recentEvents) {
-            recentEvents.add(new EventRecord(event, receivedAt, responseTime.toMillis()));
-            // Keep only last 100 events
-            if (recentEvents.size() > 100) {
-                recentEvents.remove(0);
+        long elapsedMicros = (System.nanoTime() - started) / 1_000;
+        log.debug("Batch of {} events ({} fires, {} heartbeats, {} duplicates) in {}µs",
+            accepted, fires, heartbeats, duplicatesInBatch, elapsedMicros);
+        return new BatchResult(accepted, fires, heartbeats, duplicatesInBatch,
+            accepted > 0 ? maxResponseTimeMs : 0, elapsedMicros);
+    }
+    
+    /**
+     * Handle one event, whichever endpoint it arrived on.
+     * 
+     * The response time can be negative - the barn's clock may be ahead of
+     * ours - so what happened to the event is said separately.
+     * 
+     * The event's id is claimed before it's handled, so two copies arriving
+     * at once aren't both counted, and released again if handling fails,
+     * so the barn's retry is handled rather than called a duplicate.
+     * 
+     * @throws IllegalArgumentException if the event can't be handled at all
+     *         (nothing is claimed or counted)
+     */
+    private Processed process(BarnEvent event, Instant receivedAt) {
+        if (event.timestamp() == null && !"HEARTBEAT".equals(event.eventType())) {
+            throw new IllegalArgumentException("no timestamp");
+        }
+        // Events from older barns have no id; those can't be checked
+        boolean claimed = event.eventId() != null && !"HEARTBEAT".equals(event.eventType());
+        if (claimed && !seenEventIds.firstSighting(event.eventId())) {
+            duplicates.increment();
+            log.debug("Duplicate {} from {} ({})", event.eventType(), event.barnId(), event.eventId());
+            return Processed.DUPLICATE;
+        }
+        try {
+            return handle(event, receivedAt);
+        } catch (RuntimeException e) {
+            if (claimed) {
+                seenEventIds.release(event.eventId());
             }
+            throw e;
+        }
+    }
+    
+    private Processed handle(BarnEvent event, Instant receivedAt) {
+        hybridMonitor.onPush(event, receivedAt);
+        if ("HEARTBEAT".equals(event.eventType())) {
+            return Processed.HEARTBEAT;
         }
+        Duration responseTime = Duration.between(event.timestamp(), receivedAt);
+        eventsReceived.increment();
+        
+        // Store for history (the oldest falls off the end)
+        recentEvents.add(new EventRecord(event, receivedAt, responseTime.toMillis()));
         
         if ("FIRE".equals(event.eventType())) {
-            firesDetected.incrementAndGet();
-            totalResponseTimeMs.addAndGet(responseTime.toMillis());
+            firesDetected.increment();
+            totalResponseTimeMs.add(responseTime.toMillis());
             
             log.error("═══════════════════════════════════════════════════");
             log.error("🔥🔥🔥 FIRE EVENT RECEIVED! 🔥🔥🔥");
@@ -79,7 +223,7 @@ public class EventController {
                 event.eventType(), event.barnId(), responseTime.toMillis());
         }
         
-        return "Event processed in " + responseTime.toMillis() + "ms";
+        return new Processed(Outcome.ACCEPTED, responseTime.toMillis());
     }
     
     /**
@@ -87,28 +231,45 @@ public class EventController {
      */
     @GetMapping("/stats")
     public EventStats getStats() {
-        long avgResponseTime = firesDetected.get() > 0 
-            ? totalResponseTimeMs.get() / firesDetected.get() 
+        long fires = firesDetected.sum();
+        long avgResponseTime = fires > 0 
+            ? totalResponseTimeMs.sum() / fires 
             : 0;
             
         return new EventStats(
-            eventsReceived.get(),
-            firesDetected.get(),
-            avgResponseTime
+            eventsReceived.intValue(),
+            (int) fires,
+            avgResponseTime,
+            batchesReceived.sum(),
+            duplicates.sum(),
+            seenEventIds.getStats()
         );
     }
     
     /**
-     * Get recent event history.
+     * Get recent event history, oldest first. Reading it never holds up
+     * incoming events.
      */
     @GetMapping("/events/history")
     public List<EventRecord> getHistory() {
-        synchronized (recentEvents) {
-            return new ArrayList<>(recentEvents);
-        }
+        return recentEvents.snapshot();
     }
     
-    public record EventStats(int totalEvents, int firesDetected, long avgResponseTimeMs) {}
+    public record EventStats(int totalEvents, int firesDetected, long avgResponseTimeMs, long batches,
+                             long duplicates, SeenEventIds.DedupeStats dedupe) {}
+    
+    public record BatchResult(int accepted, int fires, int heartbeats, int duplicates,
+                              long maxResponseTimeMs, long elapsedMicros) {}
     
     public record EventRecord(BarnEvent event, Instant receivedAt, long responseTimeMs) {}
+    
+    private enum Outcome { ACCEPTED, HEARTBEAT, DUPLICATE }
+    
+    /**
+     * @param responseTimeMs how long an accepted event took to reach us (0 otherwise)
+     */
+    private record Processed(Outcome outcome, long responseTimeMs) {
+        static final Processed HEARTBEAT = new Processed(Outcome.HEARTBEAT, 0);
+        static final Processed DUPLICATE = new Processed(Outcome.DUPLICATE, 0);
+    }
 }
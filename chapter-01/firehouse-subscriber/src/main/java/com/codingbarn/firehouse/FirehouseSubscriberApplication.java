@@ -39,10 +39,20 @@ class SubscriptionInitializer {
     @Value("${firehouse.callback.host:localhost}")
     private String callbackHost;
     
+    @Value("${firehouse.mode:push}")
+    private String mode;
+    
+    @Value("${hybrid.heartbeat-seconds:10}")
+    private long heartbeatSeconds;
+    
     @EventListener(ApplicationReadyEvent.class)
     public void subscribeToBar() {
         String callbackUrl = "http://" + callbackHost + ":" + serverPort + "/events";
         String subscribeUrl = barnServiceUrl + "/barn/subscribe?callbackUrl=" + callbackUrl;
+        if ("hybrid".equalsIgnoreCase(mode)) {
+            // So we can tell a quiet barn from a broken webhook
+            subscribeUrl += "&heartbeatSeconds=" + heartbeatSeconds;
+        }
         
         log.info("════════════════════════════════════════════════════");
         log.info("🏠 Firehouse Subscriber starting up");
@@ -0,0 +1,23 @@
+package com.codingbarn.firehouse;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * How the hybrid firehouse is doing: which mode it's in, and how fast
+ * each path noticed the fires. See {@link HybridMonitor}.
+ */
+@RestController
+public class HybridController {
+    
+    private final HybridMonitor monitor;
+    
+    public HybridController(HybridMonitor monitor) {
+        this.monitor = monitor;
+    }
+    
+    @GetMapping("/hybrid/stats")
+    public HybridMonitor.HybridStats getStats() {
+        return monitor.getStats();
+    }
+}
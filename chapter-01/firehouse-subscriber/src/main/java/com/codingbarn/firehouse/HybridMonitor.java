@@ -0,0 +1,318 @@
+package com.codingbarn.firehouse;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push, with polling as the safety net.
+ * 
+ * Webhooks are fast, but a firehouse that only listens can't tell a quiet
+ * night from a broken pipe. Polling always works, but it's slow and it
+ * costs the barn. In hybrid mode ({@code firehouse.mode=hybrid}) we do
+ * both:
+ * 
+ * - We subscribe with heartbeats, so the barn calls us every few seconds
+ *   even when nothing is burning.
+ * - We still poll /barn/status, but rarely - a reconciliation check that
+ *   catches anything push missed.
+ * - If neither an event nor a heartbeat arrives before the deadline, we
+ *   assume push is broken and poll aggressively until it comes back.
+ * 
+ * Every fire is credited to the path that saw it first, and each path's
+ * detection latency is tracked separately, so the two can be compared.
+ * A fire is known by its barn and start time: a FIRE with a different
+ * start time is a new fire, even if we never heard the last one go out.
+ * Fires nobody has mentioned for {@code hybrid.sighting-ttl-ms} are
+ * forgotten, so a missed EXTINGUISHED can't keep one around forever.
+ */
+@Component
+public class HybridMonitor {
+    
+    private static final Logger log = LoggerFactory.getLogger(HybridMonitor.class);
+    
+    private static final long TICK_MS = 250;
+    
+    public enum Mode { PUSH, POLLING }
+    
+    public enum Path { PUSH, POLL }
+    
+    private final boolean enabled;
+    private final RestTemplate restTemplate;
+    private final String statusUrl;
+    private final String barnId;
+    private final long pushDeadlineMs;
+    private final long reconcileIntervalMs;
+    private final long fallbackIntervalMs;
+    private final long sightingTtlMs;
+    private final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("hybrid-monitor").daemon().factory());
+    
+    private volatile Mode mode = Mode.PUSH;
+    private volatile long lastPushAt = System.currentTimeMillis();
+    private volatile long nextPollAt = 0;
+    private volatile long fallbackSince = 0;
+    private final AtomicLong totalFallbackMs = new AtomicLong(0);
+    private final AtomicLong modeSwitches = new AtomicLong(0);
+    private final AtomicLong heartbeats = new AtomicLong(0);
+    private final AtomicLong pushEvents = new AtomicLong(0);
+    private final AtomicLong polls = new AtomicLong(0);
+    private final AtomicLong failedPolls = new AtomicLong(0);
+    
+    // Fires we currently know about, by barn, and who saw them
+    private final Map<String, Sighting> burning = new ConcurrentHashMap<>();
+    private final Map<Path, PathCounters> paths = Map.of(Path.PUSH, new PathCounters(), Path.POLL, new PathCounters());
+    
+    public HybridMonitor(
+            @Value("${firehouse.mode:push}") String firehouseMode,
+            @Value("${barn.service.url:http://localhost:8082}") String barnServiceUrl,
+            @Value("${hybrid.barn-id:main-barn}") String barnId,
+            @Value("${hybrid.push-deadline-ms:30000}") long pushDeadlineMs,
+            @Value("${hybrid.reconcile-interval-ms:60000}") long reconcileIntervalMs,
+            @Value("${hybrid.fallback-interval-ms:1000}") long fallbackIntervalMs,
+            @Value("${hybrid.timeout-ms:2000}") int timeoutMs,
+            @Value("${hybrid.sighting-ttl-ms:3600000}") long sightingTtlMs) {
+        this.enabled = "hybrid".equalsIgnoreCase(firehouseMode);
+        this.statusUrl = barnServiceUrl + "/barn/status";
+        this.barnId = barnId;
+        this.pushDeadlineMs = pushDeadlineMs;
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        this.fallbackIntervalMs = fallbackIntervalMs;
+        this.sightingTtlMs = sightingTtlMs;
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMs);
+        requestFactory.setReadTimeout(timeoutMs);
+        this.restTemplate = new RestTemplate(requestFactory);
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        lastPushAt = System.currentTimeMillis();
+        log.info("🛟 Hybrid mode: push first, reconciling every {} ms, polling every {} ms if push goes quiet for {} ms",
+            reconcileIntervalMs, fallbackIntervalMs, pushDeadlineMs);
+        scheduler.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Something arrived by webhook - an event or a heartbeat. Either way,
+     * push is working.
+     */
+    public void onPush(BarnEvent event, Instant receivedAt) {
+        if (!enabled) {
+            return;
+        }
+        lastPushAt = receivedAt.toEpochMilli();
+        if ("HEARTBEAT".equals(event.eventType())) {
+            heartbeats.incrementAndGet();
+        } else {
+            pushEvents.incrementAndGet();
+        }
+        if (mode == Mode.POLLING) {
+            switchTo(Mode.PUSH);
+        }
+        
+        if ("FIRE".equals(event.eventType())) {
+            sawFire(Path.PUSH, event.barnId(), event.timestamp(), receivedAt);
+        } else if ("EXTINGUISHED".equals(event.eventType())) {
+            burning.remove(event.barnId());
+        }
+    }
+    
+    public HybridStats getStats() {
+        long now = System.currentTimeMillis();
+        long fallbackMs = totalFallbackMs.get() + (mode == Mode.POLLING ? now - fallbackSince : 0);
+        return new HybridStats(
+            enabled,
+            mode,
+            now - lastPushAt,
+            modeSwitches.get(),
+            fallbackMs,
+            heartbeats.get(),
+            pushEvents.get(),
+            polls.get(),
+            failedPolls.get(),
+            paths.get(Path.PUSH).stats(),
+            paths.get(Path.POLL).stats()
+        );
+    }
+    
+    private void tick() {
+        long now = System.currentTimeMillis();
+        if (mode == Mode.PUSH && now - lastPushAt > pushDeadlineMs) {
+            log.warn("⚠ Nothing pushed for {} ms - webhooks may be broken. Polling every {} ms until they're back.",
+                now - lastPushAt, fallbackIntervalMs);
+            switchTo(Mode.POLLING);
+        }
+        if (now >= nextPollAt) {
+            poll();
+            nextPollAt = System.currentTimeMillis() + (mode == Mode.POLLING ? fallbackIntervalMs : reconcileIntervalMs);
+        }
+        burning.values().removeIf(sighting -> now - sighting.lastSeenAt > sightingTtlMs);
+    }
+    
+    private void poll() {
+        polls.incrementAndGet();
+        try {
+            BarnStatus status = restTemplate.getForObject(statusUrl, BarnStatus.class);
+            Instant polledAt = Instant.now();
+            if (status == null) {
+                return;
+            }
+            if (status.isOnFire()) {
+                Instant startedAt = status.fireStartedAt() != null ? status.fireStartedAt() : polledAt;
+                sawFire(Path.POLL, barnId, startedAt, polledAt);
+            } else {
+                burning.remove(barnId);
+            }
+        } catch (Exception e) {
+            failedPolls.incrementAndGet();
+            log.warn("❌ Reconciliation poll failed: {}", e.getMessage());
+        }
+    }
+    
+    private void sawFire(Path path, String barn, Instant startedAt, Instant seenAt) {
+        long latencyMs = Math.max(0, Duration.between(startedAt, seenAt).toMillis());
+        Sighting sighting = burning.compute(barn, (id, known) -> {
+            if (known != null && known.startedAt.equals(startedAt)) {
+                return known;
+            }
+            if (known != null) {
+                log.info("New fire in {} - we never heard the last one go out", id);
+            }
+            return new Sighting(path, startedAt);
+        });
+        sighting.lastSeenAt = seenAt.toEpochMilli();
+        PathCounters counters = paths.get(path);
+        if (sighting.seenBy(path)) {
+            counters.record(latencyMs, sighting.first == path);
+            if (sighting.first == path) {
+                log.error("🔥 Fire in {} detected by {} after {} ms", barn, path, latencyMs);
+            } else {
+                log.info("{} confirmed the fire in {} ({} ms after it started)", path, barn, latencyMs);
+            }
+        }
+    }
+    
+    private synchronized void switchTo(Mode next) {
+        if (mode == next) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (next == Mode.POLLING) {
+            fallbackSince = now;
+            nextPollAt = now;
+        } else {
+            totalFallbackMs.addAndGet(now - fallbackSince);
+            nextPollAt = now + reconcileIntervalMs;
+            log.info("✓ Push is back - dropping to a reconciliation poll every {} ms", reconcileIntervalMs);
+        }
+        mode = next;
+        modeSwitches.incrementAndGet();
+    }
+    
+    /**
+     * One fire, and which paths have seen it so far.
+     */
+    private static final class Sighting {
+        private final Path first;
+        private final Instant startedAt;
+        private volatile long lastSeenAt;
+        private boolean push;
+        private boolean poll;
+        
+        private Sighting(Path first, Instant startedAt) {
+            this.first = first;
+            this.startedAt = startedAt;
+        }
+        
+        /**
+         * @return true the first time this path sees the fire
+         */
+        synchronized boolean seenBy(Path path) {
+            if (path == Path.PUSH) {
+                boolean isNew = !push;
+                push = true;
+                return isNew;
+            }
+            boolean isNew = !poll;
+            poll = true;
+            return isNew;
+        }
+    }
+    
+    private static final class PathCounters {
+        private final AtomicLong detections = new AtomicLong(0);
+        private final AtomicLong detectedFirst = new AtomicLong(0);
+        private final AtomicLong totalLatencyMs = new AtomicLong(0);
+        private final AtomicLong maxLatencyMs = new AtomicLong(0);
+        private volatile long lastLatencyMs = 0;
+        
+        void record(long latencyMs, boolean first) {
+            detections.incrementAndGet();
+            if (first) {
+                detectedFirst.incrementAndGet();
+            }
+            totalLatencyMs.addAndGet(latencyMs);
+            maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+            lastLatencyMs = latencyMs;
+        }
+        
+        PathStats stats() {
+            long count = detections.get();
+            return new PathStats(count, detectedFirst.get(),
+                count > 0 ? totalLatencyMs.get() / count : 0, maxLatencyMs.get(), lastLatencyMs);
+        }
+    }
+    
+    /**
+     * @param detections fires this path saw (first or not)
+     * @param detectedFirst fires this path saw before the other one
+     */
+    public record PathStats(long detections, long detectedFirst, long avgLatencyMs, long maxLatencyMs,
+                            long lastLatencyMs) {}
+    
+    /**
+     * @param msSinceLastPush how long since the last event or heartbeat
+     * @param fallbackMs total time spent polling aggressively
+     */
+    public record HybridStats(
+        boolean enabled,
+        Mode mode,
+        long msSinceLastPush,
+        long modeSwitches,
+        long fallbackMs,
+        long heartbeats,
+        long pushEvents,
+        long polls,
+        long failedPolls,
+        PathStats push,
+        PathStats poll
+    ) {}
+}
@@ -0,0 +1,84 @@
+package com.codingbarn.firehouse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last N events we received, without a lock.
+ * 
+ * A synchronized list puts every webhook in a queue behind every other
+ * webhook (and behind anyone reading the history), and trimming it from
+ * the front shifts the whole list each time.
+ * 
+ * Here, each writer claims the next sequence number with one atomic
+ * increment and writes its record into slot {@code sequence % capacity}
+ * with a compare-and-set - but only over an older record. A writer that
+ * stalled between the two steps can find a newer lap already in its
+ * slot; then its record is already out of the window, and it gives up
+ * rather than overwrite the newer one. Nobody waits on anybody: a retry
+ * only happens when another writer changed the slot first.
+ * 
+ * Readers copy the slots without stopping anyone. Each slot remembers the
+ * sequence number it was written for, so a reader can tell a record that
+ * belongs in its snapshot from one that was overwritten (or not written
+ * yet) while it was reading, and just leaves those out.
+ */
+class RecentEvents<T> {
+    
+    private final int capacity;
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    
+    RecentEvents(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+    
+    void add(T item) {
+        long sequence = nextSequence.getAndIncrement();
+        int index = (int) (sequence % capacity);
+        Slot<T> fresh = new Slot<>(sequence, item);
+        while (true) {
+            Slot<T> current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                // Lapped while we were slow; this record is already too old to keep
+                return;
+            }
+            if (slots.compareAndSet(index, current, fresh)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * The most recent items, oldest first.
+     */
+    List<T> snapshot() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        List<T> items = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot<T> slot = slots.get((int) (sequence % capacity));
+            // Skip slots a writer has lapped, or claimed but not filled in yet
+            if (slot != null && slot.sequence == sequence) {
+                items.add(slot.item);
+            }
+        }
+        return items;
+    }
+    
+    /**
+     * How many items have ever been added (not just the ones still kept).
+     */
+    long added() {
+        return nextSequence.get();
+    }
+    
+    int capacity() {
+        return capacity;
+    }
+    
+    private record Slot<T>(long sequence, T item) {}
+}
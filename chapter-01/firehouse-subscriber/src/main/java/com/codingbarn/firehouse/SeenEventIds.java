@@ -0,0 +1,214 @@
+package com.codingbarn.firehouse;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Event ids we've seen lately, in a fixed amount of memory.
+ * 
+ * The barn retries until we say OK, so the same event can turn up twice
+ * (we answered, but the answer got lost). Remembering every id forever
+ * would grow without bound; remembering the last N in an LRU means a
+ * linked list and a lock.
+ * 
+ * Instead there are two generations of a plain hash table of 64-bit
+ * fingerprints. New ids go into the current one; lookups check both.
+ * Once the current generation is {@code windowMs} old (or holds
+ * {@code capacity} ids), it becomes the previous one and the oldest is
+ * thrown away whole. So an id is remembered for at least the window,
+ * and memory is two tables however many events arrive.
+ * 
+ * Claiming an id is one compare-and-set on an empty slot: if two copies
+ * of the same event arrive at once, exactly one of them wins. If handling
+ * the winner then fails, it {@link #release releases} the id so the
+ * barn's retry isn't waved through as a duplicate.
+ * 
+ * Unlike a Bloom filter, a fingerprint only matches another id if all 64
+ * bits collide, so a real fire is (practically) never mistaken for a
+ * duplicate.
+ */
+class SeenEventIds {
+    
+    private final int capacity;
+    private final int tableSize;
+    private final long windowMs;
+    private final AtomicReference<Generations> generations;
+    private final AtomicLong rotations = new AtomicLong();
+    private final AtomicLong earlyRotations = new AtomicLong();
+    
+    SeenEventIds(int capacity, long windowMs) {
+        this.capacity = Math.max(1, capacity);
+        // At most half full, so probe runs stay short
+        this.tableSize = Integer.highestOneBit(Math.max(2, this.capacity * 2 - 1)) << 1;
+        this.windowMs = Math.max(1, windowMs);
+        this.generations = new AtomicReference<>(
+            new Generations(new Generation(tableSize, System.currentTimeMillis()), null));
+    }
+    
+    /**
+     * @return true the first time an id is seen, false for a repeat
+     */
+    boolean firstSighting(String eventId) {
+        long fingerprint = fingerprint(eventId);
+        Generations current = rotateIfDue(System.currentTimeMillis());
+        if (current.previous != null && current.previous.contains(fingerprint)) {
+            return false;
+        }
+        return current.latest.add(fingerprint);
+    }
+    
+    /**
+     * Forget an id claimed by {@link #firstSighting} whose event couldn't
+     * be handled. It may have rotated into the previous generation since.
+     */
+    void release(String eventId) {
+        long fingerprint = fingerprint(eventId);
+        Generations current = generations.get();
+        if (!current.latest.remove(fingerprint) && current.previous != null) {
+            current.previous.remove(fingerprint);
+        }
+    }
+    
+    DedupeStats getStats() {
+        Generations current = generations.get();
+        return new DedupeStats(
+            capacity,
+            windowMs,
+            (long) tableSize * Long.BYTES * 2,
+            current.latest.size.get(),
+            current.previous != null ? current.previous.size.get() : 0,
+            rotations.get(),
+            earlyRotations.get()
+        );
+    }
+    
+    private Generations rotateIfDue(long now) {
+        Generations current = generations.get();
+        boolean expired = now - current.latest.startedAt >= windowMs;
+        boolean full = current.latest.size.get() >= capacity;
+        if (!expired && !full) {
+            return current;
+        }
+        Generations next = new Generations(new Generation(tableSize, now), current.latest);
+        if (generations.compareAndSet(current, next)) {
+            rotations.incrementAndGet();
+            if (!expired) {
+                // Ids are coming in faster than capacity per window
+                earlyRotations.incrementAndGet();
+            }
+            return next;
+        }
+        // Someone else rotated first
+        return generations.get();
+    }
+    
+    /**
+     * FNV-1a over the characters, then a final mix so the low bits (the
+     * ones that pick a slot) depend on the whole id. Never 0 or
+     * {@link Generation#RELEASED}, which mark free slots.
+     */
+    static long fingerprint(String eventId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < eventId.length(); i++) {
+            hash ^= eventId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 || hash == Generation.RELEASED ? 1 : hash;
+    }
+    
+    private record Generations(Generation latest, Generation previous) {}
+    
+    /**
+     * Open addressing with linear probing. Slots go from empty to a
+     * fingerprint, and only a release turns one into a tombstone (never
+     * back to empty, which would cut other ids' probe runs short), so
+     * readers need no lock either. Tombstones aren't reused; the
+     * generation is thrown away soon enough.
+     */
+    private static class Generation {
+        static final long RELEASED = -1;
+        
+        final AtomicLongArray slots;
+        final int mask;
+        final long startedAt;
+        final AtomicInteger size = new AtomicInteger();
+        
+        Generation(int tableSize, long startedAt) {
+            this.slots = new AtomicLongArray(tableSize);
+            this.mask = tableSize - 1;
+            this.startedAt = startedAt;
+        }
+        
+        boolean contains(long fingerprint) {
+            int index = (int) fingerprint & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    return true;
+                }
+                if (slot == 0) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+        
+        boolean add(long fingerprint) {
+            int index = (int) fingerprint & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    return false;
+                }
+                if (slot == 0) {
+                    if (slots.compareAndSet(index, 0, fingerprint)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    // Lost the slot; look again, it may be our own id
+                    continue;
+                }
+                index = (index + 1) & mask;
+            }
+            // Table full (only under a flood between rotations): let it through
+            return true;
+        }
+        
+        boolean remove(long fingerprint) {
+            int index = (int) fingerprint & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    if (slots.compareAndSet(index, fingerprint, RELEASED)) {
+                        size.decrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+                if (slot == 0) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+    }
+    
+    public record DedupeStats(
+        int capacity,
+        long windowMs,
+        long memoryBytes,
+        int idsInCurrentGeneration,
+        int idsInPreviousGeneration,
+        long rotations,
+        long earlyRotations
+    ) {}
+}